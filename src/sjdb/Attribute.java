@@ -4,30 +4,93 @@
 package sjdb;
 
 /**
+ * Attributes are identified by name. The attributes of a catalogue carry
+ * the dense int id that the catalogue gives their name (see
+ * Catalogue.newAttribute()), and are compared by id, so that the
+ * optimiser's lookups do not compare strings. An attribute made from a
+ * name alone, as in a plan built by hand, has no id and is compared by
+ * name; QueryParser resolves the names in a query against the catalogue
+ * instead.
+ * 
  * @author nmg
  *
  */
 public class Attribute {
 
+	// the id of an attribute made from a name alone
+	static final int NO_ID = -1;
+
 	private String name;
-	private int values;
+	private int id;
+	private long values;
+	private Histogram histogram;
 
 	public Attribute(String name) {
 		this.name = name;
+		this.id = NO_ID;
 		this.values = 0;
 	}
 	/**
 	 * @param name
 	 * @param values
 	 */
-	public Attribute(String name, int values) {
+	public Attribute(String name, long values) {
+		this.name = name;
+		this.id = NO_ID;
+		this.values = values;
+	}
+	
+	/**
+	 * @param name
+	 * @param values
+	 * @param histogram synopsis of the value distribution, or null
+	 */
+	public Attribute(String name, long values, Histogram histogram) {
+		this.name = name;
+		this.id = NO_ID;
+		this.values = values;
+		this.histogram = histogram;
+	}
+	
+	/**
+	 * @param name
+	 * @param id the id of the name in the attribute's catalogue
+	 * @param values
+	 * @param histogram synopsis of the value distribution, or null
+	 */
+	Attribute(String name, int id, long values, Histogram histogram) {
 		this.name = name;
+		this.id = id;
 		this.values = values;
+		this.histogram = histogram;
+	}
+	
+	/**
+	 * Create an attribute with the same name and id as another.
+	 * @param attr
+	 * @param values
+	 * @param histogram synopsis of the value distribution, or null
+	 */
+	public Attribute(Attribute attr, long values, Histogram histogram) {
+		this.name = attr.name;
+		this.id = attr.id;
+		this.values = values;
+		this.histogram = histogram;
 	}
 	
 	public Attribute(Attribute attr) {
 		this.name = attr.name;
+		this.id = attr.id;
 		this.values = attr.values;
+		this.histogram = attr.histogram;
+	}
+	
+	/**
+	 * @return the id of the attribute's name in its catalogue, or NO_ID
+	 * if the attribute was made from a name alone
+	 */
+	public int getId() {
+		return id;
 	}
 	
 	/**
@@ -40,13 +103,21 @@ public class Attribute {
 	/**
 	 * @return the number of distinct values taken by this attribute
 	 */
-	public int getValueCount() {
+	public long getValueCount() {
 		return values;
 	}
 	
+	/**
+	 * @return the synopsis of the value distribution, or null if there is none
+	 */
+	public Histogram getHistogram() {
+		return histogram;
+	}
+	
 	
 	@Override
 	public int hashCode() {
+		// consistent with equals(), and cached by the String
 		return this.name.hashCode();
 	}
 	
@@ -60,7 +131,10 @@ public class Attribute {
 		}
 		Attribute rhs = (Attribute) obj;
 		
-		return this.name.equals(rhs.getName());
+		if (this.id != NO_ID && rhs.id != NO_ID) {
+			return this.id == rhs.id;
+		}
+		return this.name.equals(rhs.name);
 	}
 	
 	public String toString() {
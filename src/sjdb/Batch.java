@@ -0,0 +1,122 @@
+package sjdb;
+
+/**
+ * This class holds a batch of up to CAPACITY tuples in columnar form, as
+ * one array of dictionary codes per attribute. Batches are the unit in
+ * which tuples flow between physical operators; once built, a batch is
+ * never modified, so operators may share column arrays.
+ */
+public class Batch {
+	/**
+	 * The maximum number of tuples in a batch.
+	 */
+	public static final int CAPACITY = 1024;
+
+	private int[][] columns;
+	private int size;
+
+	/**
+	 * Create a batch from column arrays, of which the first size entries are used.
+	 * @param columns
+	 * @param size
+	 */
+	public Batch(int[][] columns, int size) {
+		this.columns = columns;
+		this.size = size;
+	}
+
+	/**
+	 * @return the number of tuples in the batch
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of attributes in the batch
+	 */
+	public int getWidth() {
+		return columns.length;
+	}
+
+	/**
+	 * @param i
+	 * @return the codes of the i-th attribute
+	 */
+	public int[] getColumn(int i) {
+		return columns[i];
+	}
+
+	/**
+	 * @return the column arrays
+	 */
+	public int[][] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * This class accumulates tuples into batches of at most CAPACITY tuples.
+	 */
+	public static class Builder {
+		private int width;
+		private int[][] columns;
+		private int size;
+
+		public Builder(int width) {
+			this.width = width;
+			reset();
+		}
+
+		private void reset() {
+			this.columns = new int[width][Batch.CAPACITY];
+			this.size = 0;
+		}
+
+		/**
+		 * Append a tuple.
+		 * @param source columns to copy the tuple from
+		 * @param row position of the tuple in the source columns
+		 */
+		public void append(int[][] source, int row) {
+			for (int i = 0; i < source.length; i++) {
+				columns[i][size] = source[i][row];
+			}
+			size++;
+		}
+
+		/**
+		 * Append the concatenation of two tuples.
+		 * @param left columns to copy the first part from
+		 * @param leftRow
+		 * @param right columns to copy the second part from
+		 * @param rightRow
+		 */
+		public void append(int[][] left, int leftRow, int[][] right, int rightRow) {
+			for (int i = 0; i < left.length; i++) {
+				columns[i][size] = left[i][leftRow];
+			}
+			for (int i = 0; i < right.length; i++) {
+				columns[left.length + i][size] = right[i][rightRow];
+			}
+			size++;
+		}
+
+		public boolean isFull() {
+			return size == Batch.CAPACITY;
+		}
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		/**
+		 * Return the tuples appended so far as a batch, and start a new one.
+		 * @return the batch
+		 */
+		public Batch build() {
+			Batch batch = new Batch(columns, size);
+			reset();
+			return batch;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package sjdb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is a self-contained micro-benchmark harness for the planning
+ * path: loading the catalogue (with CatalogueParser,
+ * StreamingCatalogueParser or from the binary form), parsing a query, a
+ * single Estimator pass over the canonical plan, and a full
+ * Optimiser.optimise().
+ *
+ * Each benchmark is run over synthetic catalogues and queries joining
+ * 2 to 20 relations with chain, star, clique and snowflake join graphs,
+ * made by WorkloadGenerator.
+ * For each combination the benchmark is first run for a warm-up period,
+ * so that the JIT has compiled the paths being measured, and then timed
+ * operation by operation for a measurement period. Only the operation
+ * itself is timed; the inputs it consumes are prepared beforehand.
+ *
+ * Usage: Benchmark [--warmup <ms>] [--time <ms>] [--sizes <n>,<n>,...]
+ *                  [--topologies <name>,...] [--strategy <strategy>]
+ *                  [<benchmark> ...]
+ *
+ * where <benchmark> is one of parseCatalogue, parseCatalogueStreaming,
+ * loadBinaryCatalogue, parseQuery, estimate or optimise (all of them by
+ * default), and <strategy> is an Optimiser.Strategy (DYNAMIC_PROGRAMMING
+ * by default, since the permutation search is factorial in the number of
+ * predicates).
+ */
+public class Benchmark {
+	private static final long SEED = 42;
+
+	private long warmupMillis = 500;
+	private long measureMillis = 1000;
+	private Optimiser.Strategy strategy = Optimiser.Strategy.DYNAMIC_PROGRAMMING;
+
+	/**
+	 * A benchmarked operation. prepare() builds the input for one
+	 * operation outside the timed region; run() is the timed operation.
+	 */
+	private interface Operation {
+		Object prepare() throws Exception;
+		void run(Object input) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Benchmark bench = new Benchmark();
+		List<Integer> sizes = Arrays.asList(2, 5, 10, 15, 20);
+		List<WorkloadGenerator.Topology> topologies = Arrays.asList(WorkloadGenerator.Topology.values());
+		List<String> benchmarks = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--warmup")) {
+				bench.warmupMillis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("--time")) {
+				bench.measureMillis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("--strategy")) {
+				bench.strategy = Optimiser.Strategy.valueOf(args[++i]);
+			} else if (args[i].equals("--sizes")) {
+				sizes = new ArrayList<Integer>();
+				for (String size : args[++i].split(",")) {
+					sizes.add(Integer.valueOf(size));
+				}
+			} else if (args[i].equals("--topologies")) {
+				topologies = new ArrayList<WorkloadGenerator.Topology>();
+				for (String topology : args[++i].split(",")) {
+					topologies.add(WorkloadGenerator.Topology.valueOf(topology.toUpperCase()));
+				}
+			} else {
+				benchmarks.add(args[i]);
+			}
+		}
+		if (benchmarks.isEmpty()) {
+			benchmarks = Arrays.asList("parseCatalogue", "parseCatalogueStreaming", "loadBinaryCatalogue",
+					"parseQuery", "estimate", "optimise");
+		}
+
+		System.out.println(String.format("%-24s %-10s %5s %10s %14s", "Benchmark", "Topology", "Rels", "Ops", "us/op"));
+		for (String benchmark : benchmarks) {
+			for (WorkloadGenerator.Topology topology : topologies) {
+				for (int size : sizes) {
+					bench.report(benchmark, topology, size);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run one benchmark over one synthetic workload and print its result.
+	 */
+	private void report(String benchmark, WorkloadGenerator.Topology topology, int relations) throws Exception {
+		WorkloadGenerator generator = new WorkloadGenerator(SEED);
+		generator.setRelations(relations);
+		generator.setTopology(topology);
+		final String catalogue = generator.catalogue();
+		final String query = generator.query();
+		final File catFile = File.createTempFile("sjdb-bench", ".cat");
+		catFile.deleteOnExit();
+		Writer out = new FileWriter(catFile);
+		try {
+			out.write(catalogue);
+		} finally {
+			out.close();
+		}
+		final Catalogue cat = new Catalogue();
+		new CatalogueParser(catFile.getPath(), cat).parse();
+
+		Operation op;
+		if (benchmark.equals("parseCatalogue")) {
+			op = new Operation() {
+				public Object prepare() {
+					return null;
+				}
+				public void run(Object input) {
+					new CatalogueParser(catFile.getPath(), new Catalogue()).parse();
+				}
+			};
+		} else if (benchmark.equals("parseCatalogueStreaming")) {
+			op = new Operation() {
+				public Object prepare() {
+					return null;
+				}
+				public void run(Object input) throws Exception {
+					new StreamingCatalogueParser(catFile.getPath(), new Catalogue()).parse();
+				}
+			};
+		} else if (benchmark.equals("loadBinaryCatalogue")) {
+			final File binFile = File.createTempFile("sjdb-bench", ".bin");
+			binFile.deleteOnExit();
+			BinaryCatalogue.convert(catFile.getPath(), binFile.getPath());
+			op = new Operation() {
+				public Object prepare() {
+					return null;
+				}
+				public void run(Object input) throws Exception {
+					new Catalogue().loadBinary(binFile.getPath());
+				}
+			};
+		} else if (benchmark.equals("parseQuery")) {
+			op = new Operation() {
+				public Object prepare() {
+					return null;
+				}
+				public void run(Object input) throws Exception {
+					new QueryParser(cat, new StringReader(query)).parse();
+				}
+			};
+		} else if (benchmark.equals("estimate")) {
+			op = new Operation() {
+				public Object prepare() throws Exception {
+					return new QueryParser(cat, new StringReader(query)).parse();
+				}
+				public void run(Object input) {
+					new Estimator().getSumOfCost((Operator) input);
+				}
+			};
+		} else if (benchmark.equals("optimise")) {
+			op = new Operation() {
+				public Object prepare() throws Exception {
+					return new QueryParser(cat, new StringReader(query)).parse();
+				}
+				public void run(Object input) {
+					Optimiser optimiser = new Optimiser(cat);
+					optimiser.setStrategy(strategy);
+					optimiser.optimise((Operator) input);
+				}
+			};
+		} else {
+			throw new IllegalArgumentException("Unknown benchmark " + benchmark);
+		}
+
+		measure(op, warmupMillis);
+		long[] result = measure(op, measureMillis);
+		System.out.println(String.format("%-24s %-10s %5d %10d %14.3f", benchmark, topology.toString().toLowerCase(),
+				relations, result[0], result[1] / 1000.0 / result[0]));
+		catFile.delete();
+	}
+
+	/**
+	 * Run an operation repeatedly for at least the given time (and at
+	 * least once).
+	 * @return the number of operations and the nanoseconds spent in them
+	 */
+	private static long[] measure(Operation op, long millis) throws Exception {
+		long end = System.nanoTime() + millis * 1000000L;
+		long ops = 0;
+		long elapsed = 0;
+		do {
+			Object input = op.prepare();
+			long start = System.nanoTime();
+			op.run(input);
+			elapsed += System.nanoTime() - start;
+			ops++;
+		} while (System.nanoTime() < end);
+		return new long[] { ops, elapsed };
+	}
+}
@@ -0,0 +1,421 @@
+package sjdb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class reads and writes a compact binary form of the serialised
+ * system catalogue, which can be used without being parsed: the file is
+ * mapped into memory and relations and attributes are decoded only when
+ * they are first looked up (see Catalogue.loadBinary()).
+ *
+ * The file consists of, in order (all integers big-endian):
+ *
+ * - a header: the magic number, the format version, the numbers of
+ *   relation records, attribute records and entries in each index, and
+ *   the offsets of the sections below
+ * - a string table holding every name and histogram in UTF-8; strings
+ *   are referred to by their offset in the table and length in bytes
+ * - one fixed-width record per relation: name, tuple count, and the
+ *   number of its first attribute record and of its attributes
+ * - one fixed-width record per attribute: name, value count, and the
+ *   histogram fields in the text form (mcv=...,hist=...), if any
+ * - an index of relations and one of attributes: the numbers of the
+ *   records sorted by the UTF-8 bytes of their names, one per name, so
+ *   that a name is found by binary search
+ *
+ * As in the text form, a later relation or attribute of the same name
+ * replaces an earlier one. Since the file is mapped in one piece it may
+ * not exceed 2GB.
+ *
+ * Usage: BinaryCatalogue <text catalogue file> <binary catalogue file>
+ * converts a text catalogue (see CatalogueParser) into the binary form.
+ */
+public class BinaryCatalogue {
+	static final int MAGIC = 0x534A4442; // "SJDB"
+	static final int FORMAT_VERSION = 1;
+
+	private static final int HEADER_SIZE = 11 * 4;
+	private static final int RELATION_RECORD_SIZE = 24;
+	private static final int ATTRIBUTE_RECORD_SIZE = 24;
+
+	private final ByteBuffer buffer;
+	private final int relationCount;
+	private final int attributeCount;
+	private final int relationIndexCount;
+	private final int attributeIndexCount;
+	private final int strings;
+	private final int relations;
+	private final int attributes;
+	private final int relationIndex;
+	private final int attributeIndex;
+
+	// decoded records, by record number, so that each is decoded once
+	private final ConcurrentHashMap<Integer, NamedRelation> resolvedRelations = new ConcurrentHashMap<Integer, NamedRelation>();
+	private final ConcurrentHashMap<Integer, Attribute> resolvedAttributes = new ConcurrentHashMap<Integer, Attribute>();
+	// gives the decoded attributes their ids
+	private final Catalogue catalogue;
+
+	private BinaryCatalogue(ByteBuffer buffer, Catalogue catalogue) throws DatabaseException {
+		this.buffer = buffer;
+		this.catalogue = catalogue;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new DatabaseException("Not a binary catalogue");
+		}
+		if (buffer.getInt(4) != FORMAT_VERSION) {
+			throw new DatabaseException("Unsupported binary catalogue version " + buffer.getInt(4));
+		}
+		this.relationCount = buffer.getInt(8);
+		this.attributeCount = buffer.getInt(12);
+		this.relationIndexCount = buffer.getInt(16);
+		this.attributeIndexCount = buffer.getInt(20);
+		this.strings = buffer.getInt(24);
+		this.relations = buffer.getInt(28);
+		this.attributes = buffer.getInt(32);
+		this.relationIndex = buffer.getInt(36);
+		this.attributeIndex = buffer.getInt(40);
+		if (attributeIndex + 4L * attributeIndexCount > buffer.capacity()) {
+			throw new DatabaseException("Truncated binary catalogue");
+		}
+	}
+
+	/**
+	 * Map a binary catalogue file into memory. Only the header is read.
+	 * @param filename
+	 * @param catalogue the catalogue the file is loaded into, whose ids
+	 * its attributes are given
+	 * @return
+	 * @throws IOException if the file cannot be read
+	 * @throws DatabaseException if the file is not a binary catalogue
+	 */
+	public static BinaryCatalogue open(String filename, Catalogue catalogue) throws IOException, DatabaseException {
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		try {
+			// the mapping remains valid after the channel is closed
+			return new BinaryCatalogue(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), catalogue);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param filename
+	 * @return whether the file starts with the binary catalogue's magic number
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean isBinary(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(filename));
+		try {
+			return in.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the number of distinct relation names
+	 */
+	public int getRelationCount() {
+		return relationIndexCount;
+	}
+
+	/**
+	 * Return the NamedRelation with the specified name, decoding it and
+	 * its attributes on first use.
+	 * @param name
+	 * @return the relation, or null if there is none of that name
+	 */
+	NamedRelation findRelation(String name) {
+		int record = find(name, relationIndex, relationIndexCount, relations, RELATION_RECORD_SIZE);
+		return record < 0 ? null : relation(record);
+	}
+
+	/**
+	 * Return the Attribute with the specified name, decoding it on first use.
+	 * @param name
+	 * @return the attribute, or null if there is none of that name
+	 */
+	Attribute findAttribute(String name) {
+		int record = find(name, attributeIndex, attributeIndexCount, attributes, ATTRIBUTE_RECORD_SIZE);
+		return record < 0 ? null : attribute(record);
+	}
+
+	/**
+	 * @return every relation, one per name, in name order
+	 */
+	List<NamedRelation> allRelations() {
+		List<NamedRelation> ret = new ArrayList<NamedRelation>(relationIndexCount);
+		for (int i = 0; i < relationIndexCount; i++) {
+			ret.add(relation(buffer.getInt(relationIndex + 4 * i)));
+		}
+		return ret;
+	}
+
+	private NamedRelation relation(int record) {
+		NamedRelation reln = resolvedRelations.get(record);
+		if (reln == null) {
+			int base = relations + record * RELATION_RECORD_SIZE;
+			long size = buffer.getLong(base + 8);
+			int first = buffer.getInt(base + 16);
+			int count = buffer.getInt(base + 20);
+			reln = new NamedRelation(string(base), size);
+			for (int i = first; i < first + count; i++) {
+				reln.addAttribute(attribute(i));
+			}
+			NamedRelation existing = resolvedRelations.putIfAbsent(record, reln);
+			if (existing != null) {
+				reln = existing;
+			}
+		}
+		return reln;
+	}
+
+	private Attribute attribute(int record) {
+		Attribute attr = resolvedAttributes.get(record);
+		if (attr == null) {
+			int base = attributes + record * ATTRIBUTE_RECORD_SIZE;
+			String name = string(base);
+			long values = buffer.getLong(base + 8);
+			String histogram = string(base + 16);
+			if (histogram.isEmpty()) {
+				attr = catalogue.newAttribute(name, values, null);
+			} else {
+				attr = catalogue.newAttribute(name, values,
+						CatalogueParser.parseHistogram(relationSize(record), histogram.split(",", 0), 0));
+			}
+			Attribute existing = resolvedAttributes.putIfAbsent(record, attr);
+			if (existing != null) {
+				attr = existing;
+			}
+		}
+		return attr;
+	}
+
+	/**
+	 * @return the tuple count of the relation owning an attribute record,
+	 * which the histogram's counts are relative to
+	 */
+	private long relationSize(int attributeRecord) {
+		int lo = 0;
+		int hi = relationCount - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (buffer.getInt(relations + mid * RELATION_RECORD_SIZE + 16) <= attributeRecord) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return buffer.getLong(relations + lo * RELATION_RECORD_SIZE + 8);
+	}
+
+	/**
+	 * Binary search an index for a name.
+	 * @return the number of the record with that name, or -1
+	 */
+	private int find(String name, int index, int count, int records, int recordSize) {
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = count - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int record = buffer.getInt(index + 4 * mid);
+			int cmp = compare(records + record * recordSize, key);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return record;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare the string referred to at the given position with key, byte
+	 * by byte as unsigned values.
+	 */
+	private int compare(int ref, byte[] key) {
+		int offset = strings + buffer.getInt(ref);
+		int length = buffer.getInt(ref + 4);
+		for (int i = 0; i < Math.min(length, key.length); i++) {
+			int cmp = (buffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Decode the string referred to (by offset and length) at the given
+	 * position.
+	 */
+	private String string(int ref) {
+		int offset = strings + buffer.getInt(ref);
+		byte[] bytes = new byte[buffer.getInt(ref + 4)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Convert a text catalogue into the binary form.
+	 * @param textFilename
+	 * @param binaryFilename
+	 * @throws IOException if either file cannot be read or written
+	 * @throws DatabaseException if a line of the text catalogue is malformed
+	 */
+	public static void convert(String textFilename, String binaryFilename) throws IOException, DatabaseException {
+		Writer writer = new Writer();
+		BufferedReader read = new BufferedReader(new FileReader(textFilename));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = read.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty()) {
+					continue;
+				}
+				try {
+					writer.addRelation(line.split(":", 0));
+				} catch (RuntimeException e) {
+					throw new DatabaseException(textFilename + ":" + lineNumber + ": malformed relation (" + e + ")");
+				}
+			}
+		} finally {
+			read.close();
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFilename)));
+		try {
+			writer.write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Accumulates the records of a binary catalogue while the text form is
+	 * read.
+	 */
+	private static class Writer {
+		private ByteArrayOutputStream strings = new ByteArrayOutputStream();
+		private Map<String, int[]> stringRefs = new LinkedHashMap<String, int[]>();
+		private ByteArrayOutputStream relations = new ByteArrayOutputStream();
+		private ByteArrayOutputStream attributes = new ByteArrayOutputStream();
+		private DataOutputStream relationOut = new DataOutputStream(relations);
+		private DataOutputStream attributeOut = new DataOutputStream(attributes);
+		private int relationCount;
+		private int attributeCount;
+		// the last record of each name
+		private Map<String, Integer> relationNames = new LinkedHashMap<String, Integer>();
+		private Map<String, Integer> attributeNames = new LinkedHashMap<String, Integer>();
+
+		void addRelation(String[] parts) throws IOException {
+			String reln = parts[0];
+			long size = Long.decode(parts[1]).longValue();
+			writeString(relationOut, reln);
+			relationOut.writeLong(size);
+			relationOut.writeInt(attributeCount);
+			relationOut.writeInt(parts.length - 2);
+			relationNames.put(reln, relationCount++);
+
+			for (int i = 2; i < parts.length; i++) {
+				String[] fields = parts[i].split(",", 0);
+				int histogram = parts[i].indexOf(',', fields[0].length() + 1);
+				writeString(attributeOut, fields[0]);
+				attributeOut.writeLong(Long.decode(fields[1]).longValue());
+				writeString(attributeOut, fields.length > 2 ? parts[i].substring(histogram + 1) : "");
+				attributeNames.put(fields[0], attributeCount++);
+			}
+		}
+
+		private void writeString(DataOutputStream out, String s) throws IOException {
+			int[] ref = stringRefs.get(s);
+			if (ref == null) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				ref = new int[] { strings.size(), bytes.length };
+				strings.write(bytes);
+				stringRefs.put(s, ref);
+			}
+			out.writeInt(ref[0]);
+			out.writeInt(ref[1]);
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			long stringsOffset = HEADER_SIZE;
+			long relationsOffset = stringsOffset + strings.size();
+			long attributesOffset = relationsOffset + relations.size();
+			long relationIndexOffset = attributesOffset + attributes.size();
+			long attributeIndexOffset = relationIndexOffset + 4L * relationNames.size();
+			if (attributeIndexOffset + 4L * attributeNames.size() > Integer.MAX_VALUE) {
+				throw new IOException("Catalogue too large for the binary form");
+			}
+
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(relationCount);
+			out.writeInt(attributeCount);
+			out.writeInt(relationNames.size());
+			out.writeInt(attributeNames.size());
+			out.writeInt((int) stringsOffset);
+			out.writeInt((int) relationsOffset);
+			out.writeInt((int) attributesOffset);
+			out.writeInt((int) relationIndexOffset);
+			out.writeInt((int) attributeIndexOffset);
+			strings.writeTo(out);
+			relations.writeTo(out);
+			attributes.writeTo(out);
+			writeIndex(out, relationNames);
+			writeIndex(out, attributeNames);
+		}
+
+		private void writeIndex(DataOutputStream out, Map<String, Integer> names) throws IOException {
+			final Map<String, byte[]> keys = new LinkedHashMap<String, byte[]>();
+			for (String name : names.keySet()) {
+				keys.put(name, name.getBytes(StandardCharsets.UTF_8));
+			}
+			String[] sorted = names.keySet().toArray(new String[names.size()]);
+			Arrays.sort(sorted, new Comparator<String>() {
+				@Override
+				public int compare(String a, String b) {
+					byte[] x = keys.get(a);
+					byte[] y = keys.get(b);
+					for (int i = 0; i < Math.min(x.length, y.length); i++) {
+						int cmp = (x[i] & 0xff) - (y[i] & 0xff);
+						if (cmp != 0) {
+							return cmp;
+						}
+					}
+					return x.length - y.length;
+				}
+			});
+			for (String name : sorted) {
+				out.writeInt(names.get(name));
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: BinaryCatalogue <text catalogue file> <binary catalogue file>");
+			System.exit(1);
+		}
+		convert(args[0], args[1]);
+	}
+}
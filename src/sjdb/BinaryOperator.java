@@ -10,6 +10,16 @@ import java.util.List;
  *
  */
 public abstract class BinaryOperator extends Operator {
+	/**
+	 * The physical algorithm chosen for this operator, or null if none
+	 * has been chosen yet.
+	 */
+	private JoinAlgorithm algorithm;
+	/**
+	 * The estimated cost of running this operator with the chosen algorithm.
+	 */
+	private double algorithmCost;
+	
 	/**
 	 * Create a new binary operator
 	 */
@@ -35,6 +45,32 @@ public abstract class BinaryOperator extends Operator {
 		return this.inputs.get(1);
 	}
 
+	/**
+	 * Return the physical algorithm chosen for this operator
+	 * @return Algorithm, or null if none has been chosen
+	 */
+	public JoinAlgorithm getAlgorithm() {
+		return this.algorithm;
+	}
+
+	/**
+	 * Return the estimated cost of the chosen algorithm
+	 * @return Cost, in page I/Os
+	 */
+	public double getAlgorithmCost() {
+		return this.algorithmCost;
+	}
+
+	/**
+	 * Set the physical algorithm for this operator and its estimated cost
+	 * @param algorithm
+	 * @param cost
+	 */
+	public void setAlgorithm(JoinAlgorithm algorithm, double cost) {
+		this.algorithm = algorithm;
+		this.algorithmCost = cost;
+	}
+
 	/* (non-Javadoc)
 	 * @see sjdb.Operator#getInputs()
 	 */
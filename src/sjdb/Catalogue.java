@@ -1,6 +1,12 @@
 package sjdb;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class contains the system catalogue for the database; it
@@ -8,6 +14,7 @@ import java.util.HashMap;
  * 
  * - creating new NamedRelations
  * - creating new Attributes
+ * - updating the statistics of existing NamedRelations
  * 
  * The catalogue maintains a directory of NamedRelations and
  * Attributes, indexed by name.
@@ -16,18 +23,125 @@ import java.util.HashMap;
  * the attributes therein is stored on the relations or attributes,
  * and not in the catalogue.
  * 
+ * The directory is published as a series of immutable, versioned
+ * CatalogueSnapshots. Reads are lock-free and see the latest published
+ * snapshot; a reader that needs several consistent reads (such as the
+ * Optimiser) should pin a single snapshot with snapshot(). Changes are
+ * made copy-on-write by one writer at a time, and each change publishes a
+ * new version atomically. Several changes may be published as one
+ * version by making them within an Update, begun by beginUpdate(): the
+ * writer holds the catalogue's lock until the outermost Update is
+ * closed, so changes by other threads wait rather than being folded into
+ * the open version, and the changes are published only if the Update
+ * was committed.
+ * 
+ * The catalogue numbers the names of its attributes densely, in the order
+ * they are first seen, and its attributes carry those ids (see
+ * newAttribute()). The numbering belongs to the catalogue, and is dropped
+ * with it.
+ * 
+ * A catalogue in the binary form may be loaded with loadBinary(), which
+ * maps the file rather than reading it, so that loading takes the same
+ * time whatever the size of the catalogue (see BinaryCatalogue).
+ * 
  * @author nmg
  *
  */
 public class Catalogue {
 	
-	private HashMap<String, NamedRelation> relations;
-	private HashMap<String, Attribute> attributes;
+	private final AtomicReference<CatalogueSnapshot> current;
+	// held by the writer from beginUpdate() until its outermost Update is closed
+	private final ReentrantLock lock = new ReentrantLock();
+	// working copies of the directory while an update is open
+	private HashMap<String, NamedRelation> draftRelations;
+	private HashMap<String, Attribute> draftAttributes;
+	private BinaryCatalogue draftBase;
+	private int openUpdates;
+	private boolean committed;
+	// ids of the attribute names seen so far, numbered from 0
+	private final ConcurrentHashMap<String, Integer> attributeIds = new ConcurrentHashMap<String, Integer>();
 
 
 	public Catalogue() {
-		this.relations = new HashMap<String, NamedRelation>();
-		this.attributes = new HashMap<String, Attribute>();
+		this.current = new AtomicReference<CatalogueSnapshot>(new CatalogueSnapshot(0,
+				new HashMap<String, NamedRelation>(), new HashMap<String, Attribute>()));
+	}
+	
+	/**
+	 * A group of changes to the catalogue, published as a single version
+	 * when the outermost Update is closed if it was committed, and
+	 * discarded otherwise. Updates are meant for try-with-resources:
+	 * 
+	 *     try (Catalogue.Update update = catalogue.beginUpdate()) {
+	 *         ...
+	 *         update.commit();
+	 *     }
+	 * 
+	 * so that a failure part way through leaves the catalogue as it was and
+	 * releases its lock.
+	 */
+	public final class Update implements AutoCloseable {
+		private final boolean outermost;
+		private boolean closed;
+		
+		private Update(boolean outermost) {
+			this.outermost = outermost;
+		}
+		
+		/**
+		 * Mark the changes to be published when the outermost Update is
+		 * closed. Committing a nested Update has no effect.
+		 */
+		public void commit() {
+			if (outermost && !closed) {
+				committed = true;
+			}
+		}
+		
+		/**
+		 * End the update, publishing or discarding its changes if it is the
+		 * outermost one.
+		 */
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (--openUpdates == 0) {
+					if (committed) {
+						current.set(new CatalogueSnapshot(current.get().getVersion() + 1, draftRelations,
+								draftAttributes, draftBase));
+					}
+					draftRelations = null;
+					draftAttributes = null;
+					draftBase = null;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Start a group of changes, taking the catalogue's lock until the
+	 * returned Update is closed. Updates may be nested; only the outermost
+	 * one decides whether the changes are published.
+	 * 
+	 * @return the update, to be committed and closed by the caller
+	 */
+	public Update beginUpdate() {
+		lock.lock();
+		boolean outermost = openUpdates++ == 0;
+		if (outermost) {
+			CatalogueSnapshot snapshot = current.get();
+			draftRelations = new HashMap<String, NamedRelation>(snapshot.relations());
+			draftAttributes = new HashMap<String, Attribute>(snapshot.attributes());
+			draftBase = snapshot.base();
+			committed = false;
+		}
+		return new Update(outermost);
 	}
 	
 	/**
@@ -37,10 +151,13 @@ public class Catalogue {
 	 * @param relName
 	 * @param size
 	 */
-	public NamedRelation createRelation(String relName, int size) {
-		NamedRelation reln = new NamedRelation(relName, size);
-		relations.put(relName, reln);
-		return reln;
+	public NamedRelation createRelation(String relName, long size) {
+		try (Update update = beginUpdate()) {
+			NamedRelation reln = new NamedRelation(relName, size);
+			draftRelations.put(relName, reln);
+			update.commit();
+			return reln;
+		}
 	}
 	
 	/**
@@ -53,29 +170,184 @@ public class Catalogue {
 	 * @param values
 	 * @return
 	 */
-	public Attribute createAttribute(String relName, String attName, int values) {
-		Attribute attr = new Attribute(attName, values);
-		attributes.put(attName, attr);
-		relations.get(relName).addAttribute(attr);
-		return attr;
+	public Attribute createAttribute(String relName, String attName, long values) {
+		return createAttribute(relName, attName, values, null);
 	}
 	
 	/**
-	 * Return the NamedRelation with the specified name.
+	 * Create a new Attribute with the specified name, number of distinct
+	 * values and histogram, add it to the directory and associate it with
+	 * the specified NamedRelation.
+	 * 
+	 * The NamedRelation is replaced by a copy with the extra attribute,
+	 * so that earlier snapshots are unaffected.
+	 * 
+	 * @param relName
+	 * @param attName
+	 * @param values
+	 * @param histogram synopsis of the value distribution, or null
+	 * @return
+	 */
+	public Attribute createAttribute(String relName, String attName, long values, Histogram histogram) {
+		try (Update update = beginUpdate()) {
+			NamedRelation reln = draftRelation(relName);
+			Attribute attr = newAttribute(attName, values, histogram);
+			NamedRelation copy = new NamedRelation(relName, reln.getTupleCount());
+			for (Attribute existing : reln.getAttributes()) {
+				copy.addAttribute(existing);
+			}
+			copy.addAttribute(attr);
+			draftRelations.put(relName, copy);
+			draftAttributes.put(attName, attr);
+			update.commit();
+			return attr;
+		}
+	}
+	
+	/**
+	 * Add a NamedRelation that has already been given its attributes to
+	 * the directory, together with its attributes, replacing any relation
+	 * of the same name. The relation must not be changed afterwards, and
+	 * its attributes must have been made by newAttribute().
+	 * 
+	 * @param reln
+	 */
+	void addRelation(NamedRelation reln) {
+		try (Update update = beginUpdate()) {
+			draftRelations.put(reln.getName(), reln);
+			for (Attribute attr : reln.getAttributes()) {
+				draftAttributes.put(attr.getName(), attr);
+			}
+			update.commit();
+		}
+	}
+	
+	/**
+	 * Replace the statistics of an existing NamedRelation: its tuple count
+	 * and its attributes, which are matched by name.
+	 * 
+	 * @param relName
+	 * @param size new tuple count
+	 * @param attributes attributes carrying the new value counts and histograms
+	 * @return the relation with the new statistics
+	 * @throws DatabaseException if there is no such relation
+	 */
+	public NamedRelation updateStatistics(String relName, long size,
+			Collection<Attribute> attributes) throws DatabaseException {
+		try (Update update = beginUpdate()) {
+			if (draftRelation(relName) == null) {
+				throw new DatabaseException("Named relation " + relName + " not found");
+			}
+			NamedRelation reln = new NamedRelation(relName, size);
+			for (Attribute attr : attributes) {
+				Attribute copy = newAttribute(attr.getName(), attr.getValueCount(), attr.getHistogram());
+				reln.addAttribute(copy);
+				draftAttributes.put(copy.getName(), copy);
+			}
+			draftRelations.put(relName, reln);
+			update.commit();
+			return reln;
+		}
+	}
+	
+	/**
+	 * Load a catalogue in the binary form, replacing any binary catalogue
+	 * loaded before and any relations and attributes of the same names.
+	 * The file is mapped into memory; its relations and attributes are
+	 * decoded when they are first looked up.
+	 * 
+	 * @param filename
+	 * @throws IOException if the file cannot be read
+	 * @throws DatabaseException if the file is not a binary catalogue
+	 */
+	public void loadBinary(String filename) throws IOException, DatabaseException {
+		BinaryCatalogue binary = BinaryCatalogue.open(filename, this);
+		try (Update update = beginUpdate()) {
+			draftBase = binary;
+			Iterator<String> names = draftRelations.keySet().iterator();
+			while (names.hasNext()) {
+				if (binary.findRelation(names.next()) != null) {
+					names.remove();
+				}
+			}
+			names = draftAttributes.keySet().iterator();
+			while (names.hasNext()) {
+				if (binary.findAttribute(names.next()) != null) {
+					names.remove();
+				}
+			}
+			update.commit();
+		}
+	}
+	
+	/**
+	 * Create an attribute of this catalogue, with the id of its name,
+	 * without adding it to the directory.
 	 * 
 	 * @param name
+	 * @param values
+	 * @param histogram synopsis of the value distribution, or null
 	 * @return
 	 */
-	public NamedRelation getRelation(String name) throws DatabaseException {
-		NamedRelation reln = relations.get(name);
-		
-		if (reln==null) {
-			throw new DatabaseException("Named relation " + name + " not found");
+	Attribute newAttribute(String name, long values, Histogram histogram) {
+		Integer id = attributeIds.get(name);
+		if (id == null) {
+			synchronized (attributeIds) {
+				id = attributeIds.get(name);
+				if (id == null) {
+					id = attributeIds.size();
+					attributeIds.put(name, id);
+				}
+			}
+		}
+		return new Attribute(name, id, values, histogram);
+	}
+	
+	private NamedRelation draftRelation(String relName) {
+		NamedRelation reln = draftRelations.get(relName);
+		if (reln == null && draftBase != null) {
+			reln = draftBase.findRelation(relName);
 		}
-		
 		return reln;
 	}
 	
+	/**
+	 * Return the latest published snapshot of the catalogue.
+	 * 
+	 * @return
+	 */
+	public CatalogueSnapshot snapshot() {
+		return current.get();
+	}
+	
+	/**
+	 * Return the version of the catalogue's contents.
+	 * 
+	 * @return
+	 */
+	public long getVersion() {
+		return current.get().getVersion();
+	}
+	
+	/**
+	 * Return the NamedRelation with the specified name.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public NamedRelation getRelation(String name) throws DatabaseException {
+		return current.get().getRelation(name);
+	}
+	
+	/**
+	 * Return all the NamedRelations in the directory.
+	 * 
+	 * @return
+	 */
+	public Collection<NamedRelation> getRelations() {
+		return current.get().getRelations();
+	}
+	
 	/**
 	 * Return the Attribute with the specified name.
 	 * 
@@ -83,12 +355,6 @@ public class Catalogue {
 	 * @return
 	 */
 	public Attribute getAttribute(String name) throws DatabaseException {
-		Attribute attr = attributes.get(name);
-		
-		if (attr==null) {
-			throw new DatabaseException("Attribute " + name + " not found");
-		}
-		
-		return attr;
+		return current.get().getAttribute(name);
 	}
 }
@@ -1,5 +1,8 @@
 package sjdb;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This class parses a serialised system catalogue, and uses the
@@ -10,6 +13,12 @@ import java.io.*;
  * 
  * <relation name>:<tuple count>:<attr name>,<value count>:<attr name>,<value count>
  * 
+ * An attribute may optionally be followed by a list of most common values
+ * with their tuple counts, and by the bucket boundaries of an equi-depth
+ * histogram over its other values (see Histogram), for example:
+ * 
+ * <attr name>,<value count>,mcv=<value>/<count>;<value>/<count>,hist=<bound>;<bound>;<bound>
+ * 
  * @author nmg
  */
 public class CatalogueParser {
@@ -30,33 +39,74 @@ public class CatalogueParser {
 		}
 	}
 	
+	/**
+	 * Parse the whole file, publishing its relations and attributes as
+	 * a single catalogue version.
+	 */
 	public void parse() {
 		String line;
 
+		Catalogue.Update update = catalogue.beginUpdate();
 		try {
 			while ((line = this.read.readLine()) != null) {
 				parseRelation(line.split(":", 0));
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			// an error is reported and the relations read before it are kept
+			update.commit();
+			update.close();
 		}
 	}
 	
 	private void parseRelation(String[] parts) {
 		String reln = parts[0];
-		int size = Integer.decode(parts[1]).intValue();
+		long size = Long.decode(parts[1]).longValue();
 		
 		catalogue.createRelation(reln, size);
 		
 		for (int i = 2; i < parts.length; i++) {
-			parseAttribute(reln, parts[i].split(",", 0));
+			parseAttribute(reln, size, parts[i].split(",", 0));
 		}
 	}
 
-	private void parseAttribute(String reln, String[] parts) {
+	private void parseAttribute(String reln, long size, String[] parts) {
 		String attr = parts[0];
-		int values = Integer.decode(parts[1]).intValue();
+		long values = Long.decode(parts[1]).longValue();
+		
+		if (parts.length > 2) {
+			catalogue.createAttribute(reln, attr, values, parseHistogram(size, parts, 2));
+		} else {
+			catalogue.createAttribute(reln, attr, values);
+		}
+	}
+
+	/**
+	 * Build the histogram described by the fields after the value count
+	 * of an attribute.
+	 * @param size tuple count of the relation
+	 * @param parts the attribute's comma-separated fields
+	 * @param from index of the first field after the value count
+	 * @return
+	 */
+	static Histogram parseHistogram(long size, String[] parts, int from) {
+		List<String> mcvValues = new ArrayList<String>();
+		List<Long> mcvCounts = new ArrayList<Long>();
+		List<String> bounds = new ArrayList<String>();
+		
+		for (int i = from; i < parts.length; i++) {
+			if (parts[i].startsWith("mcv=")) {
+				for (String mcv : parts[i].substring(4).split(";")) {
+					String[] pair = mcv.split("/");
+					mcvValues.add(pair[0]);
+					mcvCounts.add(Long.decode(pair[1]));
+				}
+			} else if (parts[i].startsWith("hist=")) {
+				bounds.addAll(Arrays.asList(parts[i].substring(5).split(";")));
+			}
+		}
 		
-		catalogue.createAttribute(reln, attr, values);
+		return new Histogram(mcvValues, mcvCounts, bounds, size);
 	}
 }
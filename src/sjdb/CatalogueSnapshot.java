@@ -0,0 +1,119 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * This class is an immutable view of the contents of the Catalogue at one
+ * version. Snapshots are published by the Catalogue whenever relations or
+ * attributes are created or their statistics updated; a reader that holds
+ * on to a snapshot sees consistent statistics however the catalogue
+ * changes afterwards.
+ * 
+ * The NamedRelations held by a snapshot must not be modified.
+ * 
+ * A snapshot may be backed by a memory-mapped BinaryCatalogue, whose
+ * relations and attributes are decoded when they are first looked up;
+ * relations and attributes created or updated since it was loaded take
+ * precedence over those of the same name in the file.
+ */
+public class CatalogueSnapshot {
+	private final long version;
+	private final Map<String, NamedRelation> relations;
+	private final Map<String, Attribute> attributes;
+	private final BinaryCatalogue base;
+
+	CatalogueSnapshot(long version, Map<String, NamedRelation> relations, Map<String, Attribute> attributes) {
+		this(version, relations, attributes, null);
+	}
+
+	CatalogueSnapshot(long version, Map<String, NamedRelation> relations, Map<String, Attribute> attributes,
+			BinaryCatalogue base) {
+		this.version = version;
+		this.relations = Collections.unmodifiableMap(relations);
+		this.attributes = Collections.unmodifiableMap(attributes);
+		this.base = base;
+	}
+
+	/**
+	 * Return the version of the catalogue captured by this snapshot.
+	 * 
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Return the NamedRelation with the specified name.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public NamedRelation getRelation(String name) throws DatabaseException {
+		NamedRelation reln = relations.get(name);
+		if (reln == null && base != null) {
+			reln = base.findRelation(name);
+		}
+
+		if (reln==null) {
+			throw new DatabaseException("Named relation " + name + " not found");
+		}
+
+		return reln;
+	}
+
+	/**
+	 * Return all the NamedRelations in this snapshot.
+	 * 
+	 * @return
+	 */
+	public Collection<NamedRelation> getRelations() {
+		ArrayList<NamedRelation> ret = new ArrayList<NamedRelation>(relations.values());
+		if (base != null) {
+			for (NamedRelation reln : base.allRelations()) {
+				if (!relations.containsKey(reln.getName())) {
+					ret.add(reln);
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Return the Attribute with the specified name.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public Attribute getAttribute(String name) throws DatabaseException {
+		Attribute attr = attributes.get(name);
+		if (attr == null && base != null) {
+			attr = base.findAttribute(name);
+		}
+
+		if (attr==null) {
+			throw new DatabaseException("Attribute " + name + " not found");
+		}
+
+		return attr;
+	}
+
+	/**
+	 * @return the relations created or updated since the binary catalogue
+	 * backing this snapshot (if any) was loaded
+	 */
+	Map<String, NamedRelation> relations() {
+		return relations;
+	}
+
+	Map<String, Attribute> attributes() {
+		return attributes;
+	}
+
+	BinaryCatalogue base() {
+		return base;
+	}
+}
@@ -0,0 +1,404 @@
+package sjdb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A main-style check of the optimiser, executor and catalogue against the
+ * bundled data, to be run after a change alongside Test:
+ *
+ *   java sjdb.Check [data directory]
+ *
+ * It checks that every strategy finds a plan of the same cost for the
+ * bundled queries, that the optimised plans return the same attributes and
+ * rows as the canonical ones, that a binary catalogue reads back as the text catalogue
+ * it was converted from, that a chain of relations joined on a single
+ * shared key is planned without a quadratic number of join predicates, and
+ * that two attributes of one relation made equal through a third relation
+ * stay equal in the optimised plans, that the sort-merge join pairs the
+ * same rows as a nested loop when one input runs out first, and that a
+ * chain too long for the join enumerators is still planned.
+ * The first failure is thrown as an AssertionError.
+ */
+public class Check {
+	private static final int QUERIES = 5;
+	private static final int CHAIN = 12;
+	private static final int WIDE_CHAIN = 70;
+	/** Further queries on the sample tables, with relations that contribute no attribute. */
+	private static final String[] EXTRA_QUERIES = {
+		"SELECT persname\nFROM Person, Department\nWHERE deptname=\"Research\"\n",
+		"SELECT deptname, persname\nFROM Person, Project, Department\nWHERE persid=manager\n",
+	};
+
+	public static void main(String[] args) throws Exception {
+		String data = args.length > 0 ? args[0] : "data";
+
+		checkStrategies(data);
+		checkExecution(data);
+		checkBinaryCatalogue(data);
+		checkSharedKeyChain();
+		checkSameRelationClass();
+		checkSortMergeJoin();
+		checkWideChain();
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * Every strategy should find a plan of the same cost for each query.
+	 */
+	private static void checkStrategies(String data) throws Exception {
+		Catalogue cat = new Catalogue();
+		new CatalogueParser(data + "/cat.txt", cat).parse();
+
+		for (int q = 1; q <= QUERIES; q++) {
+			String query = data + "/q" + q + ".txt";
+			long expected = -1;
+			for (Optimiser.Strategy strategy : Optimiser.Strategy.values()) {
+				long cost = new Estimator().getSumOfCost(optimise(cat, query, strategy));
+				if (expected < 0) {
+					expected = cost;
+				}
+				check(cost == expected, query + ": " + strategy + " cost " + cost + ", expected " + expected);
+			}
+			System.out.println(query + ": cost " + expected);
+		}
+	}
+
+	/**
+	 * The optimised plan for each query should return the same result as
+	 * the canonical plan on the sample tables.
+	 */
+	private static void checkExecution(String data) throws Exception {
+		Catalogue cat = new Catalogue();
+		new CatalogueParser(data + "/cat.txt", cat).parse();
+		DataStore store = new DataLoader(data + "/tables", cat).load();
+
+		for (int q = 1; q <= QUERIES; q++) {
+			String query = data + "/q" + q + ".txt";
+			int rows = checkQuery(cat, store, read(query), query);
+			System.out.println(query + ": " + rows + " rows");
+		}
+		for (String query : EXTRA_QUERIES) {
+			String name = query.replace('\n', ' ').trim();
+			int rows = checkQuery(cat, store, query, name);
+			System.out.println(name + ": " + rows + " rows");
+		}
+	}
+
+	/**
+	 * The optimised plans for a query should return the same rows as its
+	 * canonical plan, in any order. With a projection they should return
+	 * its attributes in the order the query lists them; without one, the
+	 * same attributes in any order.
+	 * @return the number of rows returned
+	 */
+	private static int checkQuery(Catalogue cat, DataStore store, String query, String name) throws Exception {
+		Operator canonical = new QueryParser(cat, new StringReader(query)).parse();
+		Table expected = new Executor(store).execute(canonical);
+		List<Attribute> attrs = expected.getAttributes();
+		List<String> expectedRows = rows(expected, attrs);
+		for (Optimiser.Strategy strategy : Optimiser.Strategy.values()) {
+			Optimiser optimiser = new Optimiser(cat);
+			optimiser.setStrategy(strategy);
+			Operator plan = optimiser.optimise(new QueryParser(cat, new StringReader(query)).parse());
+			Table result = new Executor(store).execute(plan);
+			List<Attribute> resultAttrs = result.getAttributes();
+			boolean sameAttrs = canonical instanceof Project ? resultAttrs.equals(attrs)
+					: resultAttrs.size() == attrs.size() && resultAttrs.containsAll(attrs);
+			check(sameAttrs, name + ": " + strategy + " returned attributes " + resultAttrs + ", expected " + attrs);
+			List<String> rows = rows(result, attrs);
+			check(rows.size() == expectedRows.size(), name + ": " + strategy + " returned " + rows.size()
+					+ " rows, expected " + expectedRows.size());
+			check(rows.equals(expectedRows), name + ": " + strategy + " returned different rows");
+		}
+		return expectedRows.size();
+	}
+
+	/**
+	 * @return the rows of a table over the given attributes, in that order,
+	 * sorted
+	 */
+	private static List<String> rows(Table table, List<Attribute> attrs) {
+		int[][] columns = table.getColumns();
+		int[] positions = new int[attrs.size()];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = table.getAttributes().indexOf(attrs.get(i));
+		}
+		List<String> rows = new ArrayList<String>();
+		for (int row = 0; row < table.getTupleCount(); row++) {
+			StringBuilder tuple = new StringBuilder();
+			for (int i = 0; i < positions.length; i++) {
+				tuple.append(i == 0 ? "" : ",").append(columns[positions[i]][row]);
+			}
+			rows.add(tuple.toString());
+		}
+		Collections.sort(rows);
+		return rows;
+	}
+
+	/**
+	 * A catalogue converted to the binary format should read back with the
+	 * same relations, attributes and histograms as the text catalogue.
+	 */
+	private static void checkBinaryCatalogue(String data) throws Exception {
+		String text = data + "/cat_hist.txt";
+		File binary = File.createTempFile("sjdb-check", ".bin");
+		binary.deleteOnExit();
+		BinaryCatalogue.convert(text, binary.getPath());
+
+		Catalogue expected = new Catalogue();
+		new StreamingCatalogueParser(text, expected).parse();
+		Catalogue actual = new Catalogue();
+		actual.loadBinary(binary.getPath());
+
+		check(BinaryCatalogue.isBinary(binary.getPath()), binary + " is not recognised as binary");
+		check(actual.getRelations().size() == expected.getRelations().size(), "binary catalogue has "
+				+ actual.getRelations().size() + " relations, expected " + expected.getRelations().size());
+		for (NamedRelation rel : expected.getRelations()) {
+			NamedRelation read = actual.getRelation(rel.getName());
+			check(read.render().equals(rel.render()), "binary catalogue read " + read.render() + ", expected " + rel.render());
+			for (Attribute attr : rel.getAttributes()) {
+				Histogram hist = attr.getHistogram();
+				Histogram readHist = actual.getAttribute(attr.getName()).getHistogram();
+				if (hist == null) {
+					check(readHist == null, attr.getName() + ": unexpected histogram in binary catalogue");
+				} else {
+					check(readHist != null, attr.getName() + ": histogram missing from binary catalogue");
+					check(readHist.getBounds().equals(hist.getBounds())
+							&& readHist.getMostCommonValues().equals(hist.getMostCommonValues()),
+							attr.getName() + ": histogram differs in binary catalogue");
+				}
+			}
+		}
+		binary.delete();
+		System.out.println(text + ": " + expected.getRelations().size() + " relations round-trip");
+	}
+
+	/**
+	 * When every relation in a chain is joined on the same key, closing the
+	 * predicates should keep one join predicate per relation added rather
+	 * than one per pair, and the optimised plan should need no products.
+	 */
+	private static void checkSharedKeyChain() throws Exception {
+		WorkloadGenerator generator = new WorkloadGenerator(7);
+		generator.setRelations(CHAIN);
+		generator.setSharedKey(true);
+		generator.setSelections(2);
+
+		Catalogue cat = catalogue(generator);
+		String query = generator.query();
+
+		List<Predicate> preds = new ArrayList<Predicate>();
+		selections(new QueryParser(cat, new StringReader(query)).parse(), preds);
+		int joins = 0;
+		for (Predicate pred : EquivalenceClasses.close(preds)) {
+			if (!pred.equalsValue()) {
+				joins++;
+			}
+		}
+		check(joins == CHAIN - 1, "shared-key chain closed to " + joins + " join predicates, expected " + (CHAIN - 1));
+
+		Optimiser.Strategy[] strategies = { Optimiser.Strategy.DYNAMIC_PROGRAMMING,
+				Optimiser.Strategy.RANDOMISED, Optimiser.Strategy.CASCADES };
+		for (Optimiser.Strategy strategy : strategies) {
+			Optimiser optimiser = new Optimiser(cat);
+			optimiser.setStrategy(strategy);
+			Operator plan = optimiser.optimise(new QueryParser(cat, new StringReader(query)).parse());
+			check(!hasProduct(plan), "shared-key chain: " + strategy + " planned a product");
+		}
+		System.out.println("shared-key chain of " + CHAIN + ": " + joins + " join predicates");
+	}
+
+	/**
+	 * A chain of more relations than the join enumerators' bitmasks hold
+	 * should be planned by every strategy, without products, onto the
+	 * query's attributes.
+	 */
+	private static void checkWideChain() throws Exception {
+		WorkloadGenerator generator = new WorkloadGenerator(7);
+		generator.setRelations(WIDE_CHAIN);
+		generator.setTopology(WorkloadGenerator.Topology.CHAIN);
+		generator.setSelections(2);
+		Catalogue cat = catalogue(generator);
+		String query = generator.query();
+
+		for (Optimiser.Strategy strategy : Optimiser.Strategy.values()) {
+			Optimiser optimiser = new Optimiser(cat);
+			optimiser.setStrategy(strategy);
+			Operator canonical = new QueryParser(cat, new StringReader(query)).parse();
+			Operator plan = optimiser.optimise(canonical);
+			check(!hasProduct(plan), "wide chain: " + strategy + " planned a product");
+			check(plan.getOutput().getAttributes().equals(((Project) canonical).getAttributes()),
+					"wide chain: " + strategy + " returned attributes " + plan.getOutput().getAttributes());
+		}
+		System.out.println("wide chain of " + WIDE_CHAIN + ": planned");
+	}
+
+	/**
+	 * @return a new catalogue holding the generator's relations
+	 */
+	private static Catalogue catalogue(WorkloadGenerator generator) throws IOException {
+		File file = write(File.createTempFile("sjdb-check", ".txt"), generator.catalogue());
+		file.deleteOnExit();
+		Catalogue cat = new Catalogue();
+		new CatalogueParser(file.getPath(), cat).parse();
+		file.delete();
+		return cat;
+	}
+
+	/**
+	 * When a class of equal attributes holds two attributes of the same
+	 * relation, the optimised plans should still make those two equal,
+	 * although the query only equates each of them with other relations.
+	 */
+	private static void checkSameRelationClass() throws Exception {
+		File dir = Files.createTempDirectory("sjdb-check").toFile();
+		File[] files = {
+			write(new File(dir, "cat.txt"), "R:4:ra,3:rb,3\nS:5:sa,4\nT:4:ta,3\n"),
+			write(new File(dir, "R.csv"), "ra,rb\n1,1\n1,2\n2,2\n3,3\n"),
+			write(new File(dir, "S.csv"), "sa\n1\n2\n2\n3\n4\n"),
+			write(new File(dir, "T.csv"), "ta\n1\n2\n3\n3\n"),
+		};
+		try {
+			Catalogue cat = new Catalogue();
+			new CatalogueParser(files[0].getPath(), cat).parse();
+			DataStore store = new DataLoader(dir.getPath(), cat).load();
+			String query = "SELECT sa\nFROM R, S, T\nWHERE ra=sa, sa=ta, rb=ta\n";
+			int rows = checkQuery(cat, store, query, "same-relation class");
+			check(rows == 5, "same-relation class: canonical plan returned " + rows + " rows, expected 5");
+			System.out.println("same-relation class: " + rows + " rows");
+		} finally {
+			for (File file : files) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	/**
+	 * The sort-merge join should pair the same rows as a nested loop, with
+	 * runs of duplicate keys on both sides, runs spanning several batches,
+	 * and either input running out while the other still has rows.
+	 */
+	private static void checkSortMergeJoin() {
+		int[] run = new int[Batch.CAPACITY / 16];
+		Arrays.fill(run, 7);
+		int[][][] cases = {
+			{ { 1, 1, 3, 4, 5 }, { 1, 1, 1, 6 } },
+			{ { 2, 2, 9 }, { 1, 2, 2, 3 } },
+			{ { 5, 4, 3, 1, 1 }, { 6, 1, 1, 1 } },
+			{ concat(run, new int[] { 8, 9 }), concat(run, new int[] { 10 }) },
+			{ concat(run, new int[] { 11 }), concat(run, new int[] { 1, 8, 9 }) },
+		};
+		for (int[][] keys : cases) {
+			Table left = keyTable("l", keys[0]);
+			Table right = keyTable("r", keys[1]);
+			List<String> expected = new ArrayList<String>();
+			for (int i = 0; i < keys[0].length; i++) {
+				for (int j = 0; j < keys[1].length; j++) {
+					if (keys[0][i] == keys[1][j]) {
+						expected.add(keys[0][i] + "," + i + "," + keys[1][j] + "," + j);
+					}
+				}
+			}
+			Collections.sort(expected);
+
+			PhysicalOperator join = new SortMergeJoinExec(new ScanExec(left), new ScanExec(right),
+					new Predicate(left.getAttributes().get(0), right.getAttributes().get(0)));
+			List<String> rows = new ArrayList<String>();
+			Batch batch;
+			while ((batch = join.next()) != null) {
+				for (int row = 0; row < batch.getSize(); row++) {
+					StringBuilder tuple = new StringBuilder();
+					for (int col = 0; col < batch.getWidth(); col++) {
+						tuple.append(col == 0 ? "" : ",").append(batch.getColumn(col)[row]);
+					}
+					rows.add(tuple.toString());
+				}
+			}
+			check(join.next() == null, "sort-merge join returned rows after running out");
+			Collections.sort(rows);
+			check(rows.equals(expected), "sort-merge join of " + Arrays.toString(keys[0]) + " and "
+					+ Arrays.toString(keys[1]) + " returned " + rows.size() + " rows, expected " + expected.size());
+		}
+		System.out.println("sort-merge join: " + cases.length + " cases");
+	}
+
+	/**
+	 * @return a table of the given keys, each tuple followed by its row number
+	 */
+	private static Table keyTable(String name, int[] keys) {
+		int[] rows = new int[keys.length];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = i;
+		}
+		List<Attribute> attrs = Arrays.asList(new Attribute(name + "key"), new Attribute(name + "row"));
+		return new Table(attrs, new int[][] { keys.clone(), rows }, keys.length);
+	}
+
+	private static int[] concat(int[] first, int[] second) {
+		int[] ret = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, ret, first.length, second.length);
+		return ret;
+	}
+
+	private static File write(File file, String text) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private static String read(String filename) throws IOException {
+		return new String(Files.readAllBytes(new File(filename).toPath()), "UTF-8");
+	}
+
+	private static Operator parse(Catalogue cat, String query) throws Exception {
+		Reader reader = new FileReader(query);
+		try {
+			return new QueryParser(cat, reader).parse();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static Operator optimise(Catalogue cat, String query, Optimiser.Strategy strategy) throws Exception {
+		Optimiser optimiser = new Optimiser(cat);
+		optimiser.setStrategy(strategy);
+		return optimiser.optimise(parse(cat, query));
+	}
+
+	private static void selections(Operator op, List<Predicate> preds) {
+		if (op instanceof Select) {
+			preds.add(((Select) op).getPredicate());
+		}
+		for (Operator input : op.inputs) {
+			selections(input, preds);
+		}
+	}
+
+	private static boolean hasProduct(Operator op) {
+		if (op instanceof Product) {
+			return true;
+		}
+		for (Operator input : op.inputs) {
+			if (hasProduct(input)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
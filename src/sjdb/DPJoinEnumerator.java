@@ -0,0 +1,123 @@
+package sjdb;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selinger-style join enumerator. Starting from the subplans left by
+ * Optimiser.pushSelectAndProjectDown(), the cheapest plan for every
+ * connected set of relations is built bottom-up and kept in a table keyed
+ * by the set's bitmask, so each set is planned once rather than once per
+ * predicate ordering. Candidates are costed with the Estimator, the same
+ * as in Optimiser.reorderSubtrees().
+ *
+ * Only pairs of connected subplans linked by a join predicate are
+ * considered, as produced by JoinGraph.enumerate() (DPccp), so no subplan
+ * contains a cross product. If the join graph is disconnected, the best
+ * plans for its components are combined with products at the top, the
+ * smallest first.
+ *
+ * By default only left-deep plans are considered, in which one input of
+ * every join is a single relation. In bushy mode every pair is tried,
+ * which finds plans such as (A JOIN B) JOIN (C JOIN D) at the price of
+ * more candidates (O(3^n) rather than O(n 2^n) for a clique).
+ */
+class DPJoinEnumerator {
+
+    /** Relation sets are bitmasks in a long. */
+    static final int MAX_RELATIONS = Long.SIZE - 1;
+
+    private final Estimator estimator;
+    private final PlanBuilder builder;
+    private final boolean bushy;
+    private final OptimiserMetrics metrics;
+
+    /**
+     * @param estimator used to cost candidate subplans
+     * @param opList subplans generated by pushSelectAndProjectDown()
+     * @param predList predicates still to be applied
+     * @param plan the canonical plan being optimised
+     * @param bushy whether both inputs of a join may be composite subplans
+     * @param metrics planning metrics to record, or null
+     */
+    DPJoinEnumerator(Estimator estimator, List<Operator> opList, List<Predicate> predList,
+                     Operator plan, boolean bushy, OptimiserMetrics metrics) {
+        this.estimator = estimator;
+        this.builder = new PlanBuilder(opList, predList, plan);
+        this.bushy = bushy;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the cheapest plan joining all relations
+     */
+    Operator enumerate() {
+        int n = builder.size();
+        if (n > MAX_RELATIONS) {
+            throw new IllegalArgumentException("Too many relations for dynamic programming: " + n);
+        }
+        final Map<Long, Operator> bestPlan = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            estimator.getCost(builder.getBase(i));
+            bestPlan.put(PlanBuilder.bit(i), builder.getBase(i));
+        }
+
+        JoinGraph graph = builder.joinGraph();
+        graph.enumerate(new JoinGraph.PairConsumer() {
+            @Override
+            public void pair(long left, long right) {
+                if (bushy) {
+                    consider(left, right, bestPlan);
+                } else if (Long.bitCount(right) == 1) {
+                    consider(left, right, bestPlan);
+                } else if (Long.bitCount(left) == 1) {
+                    consider(right, left, bestPlan);
+                }
+            }
+        });
+
+        // cross products only between the components, smallest first
+        Long[] components = new Long[graph.components().length];
+        for (int i = 0; i < components.length; i++) {
+            components[i] = graph.components()[i];
+        }
+        Arrays.sort(components, new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                return Long.compare(bestPlan.get(a).getOutput().getTupleCount(),
+                        bestPlan.get(b).getOutput().getTupleCount());
+            }
+        });
+        long set = components[0];
+        Operator plan = bestPlan.get(set);
+        for (int i = 1; i < components.length; i++) {
+            plan = builder.combine(plan, set, bestPlan.get(components[i]), components[i]);
+            estimator.getCost(plan);
+            set |= components[i];
+        }
+        return plan;
+    }
+
+    /**
+     * Cost the plan joining the best subplans for left and right, and keep
+     * it as the best plan for their union if it is cheaper than the current
+     * one.
+     */
+    private void consider(long left, long right, Map<Long, Operator> bestPlan) {
+        long set = left | right;
+        Operator candidate = builder.combine(bestPlan.get(left), left, bestPlan.get(right), right);
+        long cost = estimator.getCost(candidate);
+        if (metrics != null) {
+            metrics.planBuilt();
+            metrics.candidateCosted();
+        }
+        Operator best = bestPlan.get(set);
+        // costs saturate at Long.MAX_VALUE, so keep the first candidate whatever its cost
+        if (best == null || cost < best.getCost()) {
+            bestPlan.put(set, candidate);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package sjdb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This class loads the data for the named relations in a Catalogue from
+ * a directory of text files, one per relation, named after the relation
+ * with the suffix ".csv". The first line of each file names the
+ * relation's attributes and each further line holds one tuple:
+ * 
+ * <attr name>,<attr name>,...,<attr name>
+ * <value>,<value>,...,<value>
+ * 
+ * Relations without a file are left empty. All values are encoded with
+ * a single Dictionary, so that attributes from different relations can be
+ * compared by code.
+ */
+public class DataLoader {
+	private String directory;
+	private Catalogue catalogue;
+
+	/**
+	 * Create a loader that reads from the given directory
+	 * @param directory
+	 * @param catalogue
+	 */
+	public DataLoader(String directory, Catalogue catalogue) {
+		this.directory = directory;
+		this.catalogue = catalogue;
+	}
+
+	/**
+	 * Load the data for every named relation in the catalogue.
+	 * @return the loaded data
+	 * @throws IOException if a file cannot be read
+	 * @throws DatabaseException if a file does not match the catalogue
+	 */
+	public DataStore load() throws IOException, DatabaseException {
+		HashMap<NamedRelation, List<String[]>> rows = new HashMap<NamedRelation, List<String[]>>();
+		HashSet<String> values = new HashSet<String>();
+
+		for (NamedRelation reln : catalogue.getRelations()) {
+			File file = new File(directory, reln.getName() + ".csv");
+			if (file.exists()) {
+				rows.put(reln, read(file, reln, values));
+			}
+		}
+
+		Dictionary dictionary = new Dictionary(values);
+		HashMap<String, Table> tables = new HashMap<String, Table>();
+		for (NamedRelation reln : rows.keySet()) {
+			List<String[]> tuples = rows.get(reln);
+			int[][] columns = new int[reln.getAttributes().size()][tuples.size()];
+			for (int row = 0; row < tuples.size(); row++) {
+				String[] tuple = tuples.get(row);
+				for (int i = 0; i < columns.length; i++) {
+					columns[i][row] = dictionary.encode(tuple[i]);
+				}
+			}
+			tables.put(reln.getName(), new Table(reln.getAttributes(), columns, tuples.size()));
+		}
+		return new DataStore(dictionary, tables);
+	}
+
+	/**
+	 * Read the tuples in a file, with their values in the order of the
+	 * relation's attributes, and collect the values seen.
+	 */
+	private List<String[]> read(File file, NamedRelation reln, HashSet<String> values)
+			throws IOException, DatabaseException {
+		List<Attribute> attributes = reln.getAttributes();
+		List<String[]> tuples = new ArrayList<String[]>();
+		BufferedReader read = new BufferedReader(new FileReader(file));
+
+		try {
+			String line = read.readLine();
+			if (line == null) {
+				throw new DatabaseException(file + ": missing header line");
+			}
+			String[] header = line.split("\\s*,\\s*");
+			if (header.length != attributes.size()) {
+				throw new DatabaseException(file + ": header does not match relation " + reln.render());
+			}
+			// position in the file of each of the relation's attributes
+			int[] position = new int[attributes.size()];
+			for (int i = 0; i < attributes.size(); i++) {
+				position[i] = -1;
+				for (int j = 0; j < header.length; j++) {
+					if (header[j].trim().equals(attributes.get(i).getName())) {
+						position[i] = j;
+					}
+				}
+				if (position[i] < 0) {
+					throw new DatabaseException(file + ": no column for attribute " + attributes.get(i));
+				}
+			}
+
+			int lineNumber = 1;
+			while ((line = read.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				String[] parts = line.split(",", -1);
+				if (parts.length != header.length) {
+					throw new DatabaseException(file + ":" + lineNumber + ": expected "
+							+ header.length + " values but found " + parts.length);
+				}
+				String[] tuple = new String[attributes.size()];
+				for (int i = 0; i < tuple.length; i++) {
+					tuple[i] = parts[position[i]].trim();
+					values.add(tuple[i]);
+				}
+				tuples.add(tuple);
+			}
+		} finally {
+			read.close();
+		}
+		return tuples;
+	}
+}
@@ -0,0 +1,39 @@
+package sjdb;
+
+import java.util.HashMap;
+
+/**
+ * This class holds the data loaded for the named relations of a
+ * database, together with the dictionary used to encode its values.
+ */
+public class DataStore {
+	private Dictionary dictionary;
+	private HashMap<String, Table> tables;
+
+	/**
+	 * Create a new data store.
+	 * @param dictionary
+	 * @param tables loaded tables, indexed by relation name
+	 */
+	public DataStore(Dictionary dictionary, HashMap<String, Table> tables) {
+		this.dictionary = dictionary;
+		this.tables = tables;
+	}
+
+	/**
+	 * @return the dictionary used to encode values
+	 */
+	public Dictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Return the data for the named relation with the specified name.
+	 * 
+	 * @param name
+	 * @return the table, or null if no data was loaded for the relation
+	 */
+	public Table getTable(String name) {
+		return tables.get(name);
+	}
+}
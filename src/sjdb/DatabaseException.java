@@ -8,6 +8,8 @@ package sjdb;
  */
 public class DatabaseException extends Exception {
 
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * 
 	 */
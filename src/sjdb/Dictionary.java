@@ -0,0 +1,120 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This class maps the values stored in a database onto dense integer
+ * codes, so that the executor can hold columns as primitive arrays. The
+ * mapping is order-preserving under Histogram.compareValues(), so range
+ * predicates can be evaluated by comparing codes.
+ */
+public class Dictionary {
+	private static final Comparator<String> ORDER = new Comparator<String>() {
+		public int compare(String a, String b) {
+			return Histogram.compareValues(a, b);
+		}
+	};
+
+	private String[] values;
+	private HashMap<String, Integer> codes;
+
+	/**
+	 * Create a dictionary over the given values.
+	 * @param values
+	 */
+	public Dictionary(Collection<String> values) {
+		// parse each value once: numbers sort by their parsed values ahead of the text values
+		HashSet<String> distinct = new HashSet<String>(values);
+		List<NumericValue> numbers = new ArrayList<NumericValue>();
+		List<String> texts = new ArrayList<String>();
+		for (String value : distinct) {
+			double number = Histogram.number(value);
+			if (Double.isNaN(number)) {
+				texts.add(value);
+			} else {
+				numbers.add(new NumericValue(number, value));
+			}
+		}
+		Collections.sort(numbers);
+		Collections.sort(texts);
+		this.values = new String[distinct.size()];
+		for (int i = 0; i < numbers.size(); i++) {
+			this.values[i] = numbers.get(i).text;
+		}
+		for (int i = 0; i < texts.size(); i++) {
+			this.values[numbers.size() + i] = texts.get(i);
+		}
+		this.codes = new HashMap<String, Integer>();
+		for (int i = 0; i < this.values.length; i++) {
+			this.codes.put(this.values[i], i);
+		}
+	}
+
+	/**
+	 * A numeric value with its parsed value, ordered as by
+	 * Histogram.compareValues().
+	 */
+	private static class NumericValue implements Comparable<NumericValue> {
+		private final double value;
+		private final String text;
+
+		NumericValue(double value, String text) {
+			this.value = value;
+			this.text = text;
+		}
+
+		public int compareTo(NumericValue other) {
+			int cmp = Double.compare(value, other.value);
+			return cmp != 0 ? cmp : text.compareTo(other.text);
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return the code of the value, or -1 if it does not occur in the database
+	 */
+	public int encode(String value) {
+		Integer code = codes.get(value);
+		return code == null ? -1 : code;
+	}
+
+	/**
+	 * @param code
+	 * @return the value with the given code
+	 */
+	public String decode(int code) {
+		return values[code];
+	}
+
+	/**
+	 * @param value
+	 * @return the smallest code whose value is not less than the given value
+	 */
+	public int lowerBound(String value) {
+		int i = Arrays.binarySearch(values, value, ORDER);
+		return i >= 0 ? i : -i - 1;
+	}
+
+	/**
+	 * @param value
+	 * @return the smallest code whose value is greater than the given value
+	 */
+	public int upperBound(String value) {
+		int i = Arrays.binarySearch(values, value, ORDER);
+		return i >= 0 ? i + 1 : -i - 1;
+	}
+
+	/**
+	 * @return the number of distinct values
+	 */
+	public int size() {
+		return values.length;
+	}
+}
@@ -0,0 +1,187 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Equivalence classes of attributes under the attr=attr predicates of a
+ * query.
+ *
+ * close() keeps a spanning set of the attr=attr predicates of each class,
+ * dropping those that the earlier ones already imply, and adds attr=value
+ * for every attribute in a class that has a member compared with that
+ * value, so that the selection can be pushed down to every relation in the
+ * class. Pairs of attributes in a class are not materialised: their number
+ * grows with the square of the class size. PlanBuilder decides which
+ * relations can be joined directly by class instead.
+ *
+ * Only one of the predicates relating two subplans is needed when they
+ * are joined; the rest are implied and applying them too would count
+ * their selectivity twice. implied() tells the plan builders which
+ * predicates to leave out. Derived attr=value selections are safe to
+ * apply: once every side of a join has been restricted to a single value,
+ * the join itself is estimated to keep every tuple.
+ */
+class EquivalenceClasses {
+
+    private EquivalenceClasses() {
+    }
+
+    /**
+     * @param preds predicates of the query
+     * @return the predicates, less the attr=attr ones implied by those
+     * before them, followed by the attr=value ones implied by the classes
+     */
+    static List<Predicate> close(List<Predicate> preds) {
+        Map<Attribute, Attribute> parent = new HashMap<>();
+        List<Predicate> ret = new ArrayList<>();
+        for (Predicate pred : preds) {
+            if (pred.comparesValue() || union(parent, pred.getLeftAttribute(), pred.getRightAttribute())) {
+                ret.add(pred);
+            }
+        }
+
+        // members of each class, in order of appearance
+        Map<Attribute, List<Attribute>> classes = new LinkedHashMap<>();
+        for (Predicate pred : preds) {
+            if (!pred.comparesValue()) {
+                for (Attribute attr : new Attribute[] { pred.getLeftAttribute(), pred.getRightAttribute() }) {
+                    Attribute root = find(parent, attr);
+                    if (!classes.containsKey(root)) {
+                        classes.put(root, new ArrayList<Attribute>());
+                    }
+                    if (!classes.get(root).contains(attr)) {
+                        classes.get(root).add(attr);
+                    }
+                }
+            }
+        }
+
+        Set<String> constants = new HashSet<>();
+        for (Predicate pred : preds) {
+            if (pred.equalsValue()) {
+                constants.add(pred.getLeftAttribute().getName() + "=" + pred.getRightValue());
+            }
+        }
+        for (Predicate pred : preds) {
+            if (!pred.equalsValue() || !parent.containsKey(pred.getLeftAttribute())) {
+                continue;
+            }
+            for (Attribute member : classes.get(find(parent, pred.getLeftAttribute()))) {
+                if (constants.add(member.getName() + "=" + pred.getRightValue())) {
+                    ret.add(pred.derive(member));
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param subtree
+     * @param pred an attr=attr predicate
+     * @return true if the attr=attr predicates applied in the subtree
+     * already make the two attributes of pred equal
+     */
+    static boolean implied(Operator subtree, Predicate pred) {
+        if (pred.comparesValue()) {
+            return false;
+        }
+        Map<Attribute, Attribute> classes = classes(subtree);
+        Attribute root = classes.get(pred.getLeftAttribute());
+        return root != null && root.equals(classes.get(pred.getRightAttribute()));
+    }
+
+    /**
+     * The classes are cached on each operator, as its cost is, and built
+     * from those of its inputs: the inputs of a JOIN or PRODUCT cover
+     * different relations, so their classes never overlap.
+     * @param op
+     * @return the representative of each attribute in a class of the
+     * attr=attr predicates applied in the subtree rooted at op
+     */
+    static Map<Attribute, Attribute> classes(Operator op) {
+        Map<Attribute, Attribute> ret = op.equalities;
+        if (ret != null) {
+            return ret;
+        }
+        Predicate pred = null;
+        if (op instanceof Select) {
+            pred = ((Select) op).getPredicate();
+        } else if (op instanceof Join) {
+            pred = ((Join) op).getPredicate();
+        }
+        if (pred != null && pred.comparesValue()) {
+            pred = null;
+        }
+
+        if (op.inputs.isEmpty()) {
+            ret = Collections.emptyMap();
+        } else if (op.inputs.size() == 1 && pred == null) {
+            ret = classes(op.inputs.get(0));
+        } else {
+            Map<Attribute, Attribute> merged = new HashMap<>();
+            for (Operator input : op.inputs) {
+                merged.putAll(classes(input));
+            }
+            if (pred != null) {
+                merge(merged, pred.getLeftAttribute(), pred.getRightAttribute());
+            }
+            ret = merged.isEmpty() ? Collections.<Attribute, Attribute>emptyMap()
+                    : Collections.unmodifiableMap(merged);
+        }
+        // the unmodifiable wrapper's final field publishes the map safely
+        op.equalities = ret;
+        return ret;
+    }
+
+    /**
+     * Merge the classes of a and b, relabelling the members of b's class.
+     */
+    private static void merge(Map<Attribute, Attribute> classes, Attribute a, Attribute b) {
+        Attribute rootA = classes.containsKey(a) ? classes.get(a) : a;
+        Attribute rootB = classes.containsKey(b) ? classes.get(b) : b;
+        classes.put(a, rootA);
+        classes.put(b, rootB);
+        if (rootA.equals(rootB)) {
+            return;
+        }
+        for (Map.Entry<Attribute, Attribute> entry : classes.entrySet()) {
+            if (entry.getValue().equals(rootB)) {
+                entry.setValue(rootA);
+            }
+        }
+    }
+
+    private static Attribute find(Map<Attribute, Attribute> parent, Attribute attr) {
+        Attribute root = attr;
+        while (parent.containsKey(root) && !parent.get(root).equals(root)) {
+            root = parent.get(root);
+        }
+        return root;
+    }
+
+    /**
+     * @return false if a and b were in the same class already
+     */
+    private static boolean union(Map<Attribute, Attribute> parent, Attribute a, Attribute b) {
+        if (!parent.containsKey(a)) {
+            parent.put(a, a);
+        }
+        if (!parent.containsKey(b)) {
+            parent.put(b, b);
+        }
+        Attribute rootA = find(parent, a);
+        Attribute rootB = find(parent, b);
+        if (rootA.equals(rootB)) {
+            return false;
+        }
+        parent.put(rootA, rootB);
+        return true;
+    }
+}
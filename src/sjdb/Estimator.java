@@ -1,11 +1,17 @@
 package sjdb;
 
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
 public class Estimator implements PlanVisitor {
 
-	private int sumOfCost;		// record the cost estimation
+	// selectivities used for ranges on attributes without a histogram
+	private static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+	private static final double DEFAULT_BETWEEN_SELECTIVITY = 1.0 / 4;
+
+	private long sumOfCost;		// record the cost estimation
+	private OptimiserMetrics metrics;	// null unless instrumented
 
 
 	public Estimator() {
@@ -26,9 +32,7 @@ public class Estimator implements PlanVisitor {
 			output.addAttribute(new Attribute(iter.next()));
 		}
 		
-		op.setOutput(output);
-
-		sumOfCost += output.getTupleCount();
+		record(op, output);
 	}
 
 	public void visit(Project op) {
@@ -46,8 +50,7 @@ public class Estimator implements PlanVisitor {
 			}
 		}
 
-		op.setOutput(output);
-		sumOfCost += output.getTupleCount();
+		record(op, output);
 	}
 	
 	public void visit(Select op) {
@@ -59,53 +62,106 @@ public class Estimator implements PlanVisitor {
 		Attribute leftAttr = predicate.getLeftAttribute();
 
 		// two forms
-		if (predicate.equalsValue()) {
-			// attr=val
+		if (predicate.comparesValue()) {
+			// attr=val, attr<val, ..., attr BETWEEN val AND val, attr IN (vals)
 			Attribute leftAttrParam = input.getAttribute(leftAttr);
-			// when a=const, T(S) = T(R) / V(R, a)
-			output = new Relation((int) Math.ceil((double) input.getTupleCount() / leftAttrParam.getValueCount()));
+			double fraction = selectivity(predicate, leftAttrParam);
+			if (predicate.equalsValue() && leftAttrParam.getHistogram() == null) {
+				// when a=const, T(S) = T(R) / V(R, a)
+				output = new Relation(saturate(Math.ceil((double) input.getTupleCount() / leftAttrParam.getValueCount())));
+			} else {
+				// T(S) = T(R) * fraction of tuples satisfying the predicate
+				output = new Relation(Math.min(input.getTupleCount(),
+						Math.max(1, saturate(Math.ceil(input.getTupleCount() * fraction)))));
+			}
+
+			long selectedValues;
+			if (predicate.getComparison() == Predicate.Comparison.EQUALS) {
+				// select the only value which equals to val
+				selectedValues = 1;
+			} else if (predicate.getComparison() == Predicate.Comparison.IN) {
+				selectedValues = Math.min(leftAttrParam.getValueCount(),
+						new HashSet<String>(predicate.getValues()).size());
+			} else {
+				// a range keeps its share of the distinct values
+				selectedValues = Math.max(1, saturate(Math.ceil(leftAttrParam.getValueCount() * fraction)));
+			}
 
 			for (Attribute attrInput : input.getAttributes()) {
 				if (attrInput.equals(leftAttrParam)) {
-					// select the only value which equals to val
-					output.addAttribute(new Attribute(attrInput.getName(), 1));
+					output.addAttribute(new Attribute(attrInput, selectedValues, null));
 				} else {
 					output.addAttribute(new Attribute(attrInput));
 				}
 			}
 
-			sumOfCost += output.getTupleCount();
 		} else {
 			// ATTR=attr
 			Attribute leftAttrParam = input.getAttribute(leftAttr);
 			Attribute rightAttrParam = input.getAttribute(predicate.getRightAttribute());
 
-			int maxValues = Math.max(leftAttrParam.getValueCount(), rightAttrParam.getValueCount());
+			long maxValues = Math.max(leftAttrParam.getValueCount(), rightAttrParam.getValueCount());
 			// when ATTR=attr, T(S) = T(R) / max(V(R, A), V(R, B))
-			output = new Relation((int) Math.ceil((double) input.getTupleCount() / maxValues));
+			output = new Relation(saturate(Math.ceil((double) input.getTupleCount() / maxValues)));
 
 			// when ATTR=attr, V(R, A) = min(V(R, A), V(R, B))
 			// when ATTR=attr, V(R, B) = min(V(R, A), V(R, B))
-			int attrValues = Math.min(leftAttrParam.getValueCount(), rightAttrParam.getValueCount());
+			long attrValues = Math.min(leftAttrParam.getValueCount(), rightAttrParam.getValueCount());
 			for (Attribute attrInput : input.getAttributes()) {
 				if (attrInput.equals(leftAttrParam) || attrInput.equals(rightAttrParam)) {
-					output.addAttribute(new Attribute(attrInput.getName(), attrValues));
+					output.addAttribute(new Attribute(attrInput, attrValues, null));
 				} else {
 					output.addAttribute(new Attribute(attrInput));
 				}
 			}
 
-			sumOfCost += output.getTupleCount();
 		}
 
-		op.setOutput(output);
+		record(op, output);
 	}
 	
+	/**
+	 * Estimate the fraction of tuples satisfying a predicate that compares
+	 * an attribute with values. Histograms are used where available;
+	 * otherwise values are assumed to be uniformly distributed, and ranges
+	 * are given fixed default selectivities.
+	 */
+	private double selectivity(Predicate predicate, Attribute attr) {
+		Histogram histogram = attr.getHistogram();
+		long values = attr.getValueCount();
+		String value = predicate.getRightValue();
+		boolean ranged = histogram != null && histogram.hasBounds();
+
+		switch (predicate.getComparison()) {
+		case EQUALS:
+			return histogram != null ? histogram.equalsFraction(value, values) : 1.0 / values;
+		case IN:
+			double fraction = 0;
+			for (String v : new HashSet<String>(predicate.getValues())) {
+				fraction += histogram != null ? histogram.equalsFraction(v, values) : 1.0 / values;
+			}
+			return Math.min(1.0, fraction);
+		case LESS:
+			return ranged ? histogram.rangeFraction(null, false, value, false, values) : DEFAULT_RANGE_SELECTIVITY;
+		case LESS_EQUALS:
+			return ranged ? histogram.rangeFraction(null, false, value, true, values) : DEFAULT_RANGE_SELECTIVITY;
+		case GREATER:
+			return ranged ? histogram.rangeFraction(value, false, null, false, values) : DEFAULT_RANGE_SELECTIVITY;
+		case GREATER_EQUALS:
+			return ranged ? histogram.rangeFraction(value, true, null, false, values) : DEFAULT_RANGE_SELECTIVITY;
+		case BETWEEN:
+			return ranged ? histogram.rangeFraction(value, true, predicate.getUpperValue(), true, values)
+					: DEFAULT_BETWEEN_SELECTIVITY;
+		default:
+			return 1.0;
+		}
+	}
+
 	public void visit(Product op) {
 		// get the two operands
 		Relation leftInput = op.getLeft().getOutput();
 		Relation rightInput = op.getRight().getOutput();
-		Relation output = new Relation(leftInput.getTupleCount() * rightInput.getTupleCount());
+		Relation output = new Relation(saturatedMultiply(leftInput.getTupleCount(), rightInput.getTupleCount()));
 
 		// knowing all attributes have unique global names
 		// no renaming required
@@ -116,8 +172,7 @@ public class Estimator implements PlanVisitor {
 			output.addAttribute(new Attribute(attrRightInput));
 		}
 
-		op.setOutput(output);
-		sumOfCost += output.getTupleCount();
+		record(op, output);
 	}
 	
 	public void visit(Join op) {
@@ -135,37 +190,108 @@ public class Estimator implements PlanVisitor {
 		Attribute rightAttrParam = rightInput.getAttribute(rightAttr);
 
 		// T(R JOIN S) = T(R)T(S) / max(V(R, A), V(R, B))
-		int maxValues = Math.max(leftAttrParam.getValueCount(), rightAttrParam.getValueCount());
-		int rMultiS = leftInput.getTupleCount() * rightInput.getTupleCount();
-		Relation output = new Relation((int) Math.ceil((double) rMultiS / maxValues));
+		long maxValues = Math.max(leftAttrParam.getValueCount(), rightAttrParam.getValueCount());
+		double rMultiS = (double) leftInput.getTupleCount() * rightInput.getTupleCount();
+		Relation output = new Relation(saturate(Math.ceil(rMultiS / maxValues)));
 
 		// V(R, A) = V(R, B) = min(V(R, A), V(R, B))
-		int minValues = Math.min(leftAttrParam.getValueCount(), rightAttrParam.getValueCount());
+		long minValues = Math.min(leftAttrParam.getValueCount(), rightAttrParam.getValueCount());
 
 		// iterate two relations respectively
 		for (Attribute attrLeftInput : leftInput.getAttributes()) {
 			if (attrLeftInput.equals(leftAttrParam)) {
-				output.addAttribute(new Attribute(attrLeftInput.getName(), minValues));
+				output.addAttribute(new Attribute(attrLeftInput, minValues, null));
 			} else {
 				output.addAttribute(new Attribute(attrLeftInput));
 			}
 		}
 		for (Attribute attrRightInput : rightInput.getAttributes()) {
 			if (attrRightInput.equals(rightAttrParam)) {
-				output.addAttribute(new Attribute(attrRightInput.getName(), minValues));
+				output.addAttribute(new Attribute(attrRightInput, minValues, null));
 			} else {
 				output.addAttribute(new Attribute(attrRightInput));
 			}
 		}
 
+		record(op, output);
+	}
+
+	/*
+	 * Tuple counts and costs saturate at Long.MAX_VALUE instead of
+	 * overflowing, so that a huge intermediate result can never wrap
+	 * round and make a plan look cheap.
+	 */
+
+	static long saturate(double value) {
+		return value >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) value;
+	}
+
+	static long saturatedAdd(long a, long b) {
+		long sum = a + b;
+		return sum < 0 ? Long.MAX_VALUE : sum;
+	}
+
+	static long saturatedMultiply(long a, long b) {
+		if (a != 0 && b > Long.MAX_VALUE / a) {
+			return Long.MAX_VALUE;
+		}
+		return a * b;
+	}
+
+	/**
+	 * Set the output relation of an operator whose inputs have been
+	 * estimated, and record its cost and the cost of its subplan.
+	 */
+	private void record(Operator op, Relation output) {
+		if (metrics != null) {
+			metrics.estimatorVisit();
+		}
 		op.setOutput(output);
-		sumOfCost += output.getTupleCount();
+		long cost = output.getTupleCount();
+		for (Operator input : op.inputs) {
+			cost = saturatedAdd(cost, input.getCost());
+		}
+		op.setCost(cost);
+		sumOfCost = saturatedAdd(sumOfCost, output.getTupleCount());
 	}
 
-	public int getSumOfCost(Operator plan) {
+	/**
+	 * Record estimator visits in the given metrics, or stop recording if
+	 * it is null.
+	 */
+	void setMetrics(OptimiserMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Re-estimate every operator in the plan and return its total cost.
+	 */
+	public long getSumOfCost(Operator plan) {
 		this.sumOfCost = 0;
 		plan.accept(this);
 		return this.sumOfCost;
 	}
 
+	/**
+	 * Return the total cost of the plan, estimating only those operators
+	 * that have not been estimated before. Each operator keeps its output
+	 * relation and the cost of its subplan, so costing a new operator over
+	 * already estimated inputs takes constant time; this is what the
+	 * optimiser uses when costing candidate plans that share subplans.
+	 */
+	public long getCost(Operator plan) {
+		if (plan.getCost() >= 0) {
+			return plan.getCost();
+		}
+		for (Operator input : plan.inputs) {
+			getCost(input);
+		}
+		if (metrics != null) {
+			metrics.operatorEstimated();
+		}
+		// visit this operator only, its inputs are already estimated
+		plan.visitSelf(this);
+		return plan.getCost();
+	}
+
 }
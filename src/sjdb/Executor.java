@@ -0,0 +1,117 @@
+package sjdb;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * This class executes a query plan over the data in a DataStore. As a
+ * PlanVisitor it builds a tree of physical operators bottom-up (the
+ * traversal is depth-first, left-to-right, so the inputs of an operator
+ * are on the top of a stack when it is visited), and then pulls the
+ * result from the root in batches.
+ * 
+ * Joins and products are executed with the algorithm chosen by the
+ * PhysicalPlanner, if it has been run over the plan; otherwise joins are
+ * executed as hash joins. Hash joins build on the input with the smaller
+ * tuple count as estimated by the Estimator.
+ */
+public class Executor implements PlanVisitor {
+	/**
+	 * Default memory budget for the build input of a hash join, in bytes.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+	private DataStore store;
+	private Deque<PhysicalOperator> stack;
+	private String missing;
+	private long memoryBudget;
+	private File spillDirectory;
+
+	/**
+	 * @param store data to run queries over
+	 */
+	public Executor(DataStore store) {
+		this.store = store;
+		this.stack = new ArrayDeque<PhysicalOperator>();
+		this.memoryBudget = DEFAULT_MEMORY_BUDGET;
+		this.spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+	}
+
+	/**
+	 * Set the memory a hash join's build input may occupy before both
+	 * inputs are partitioned to disk.
+	 * @param bytes
+	 */
+	public void setMemoryBudget(long bytes) {
+		this.memoryBudget = bytes;
+	}
+
+	/**
+	 * Set the directory in which hash joins write their partitions.
+	 * @param directory
+	 */
+	public void setSpillDirectory(File directory) {
+		this.spillDirectory = directory;
+	}
+
+	/**
+	 * Execute a query plan.
+	 * @param plan
+	 * @return the result of the query
+	 * @throws DatabaseException if a scanned relation has no data
+	 */
+	public Table execute(Operator plan) throws DatabaseException {
+		stack.clear();
+		missing = null;
+		// make sure every operator has an estimated output relation
+		new Estimator().getCost(plan);
+		plan.accept(this);
+		if (missing != null) {
+			throw new DatabaseException("No data loaded for relation " + missing);
+		}
+		return PhysicalOperator.materialise(stack.pop());
+	}
+
+	public void visit(Scan op) {
+		String name = ((NamedRelation) op.getRelation()).getName();
+		Table table = store.getTable(name);
+		if (table == null) {
+			missing = name;
+			table = new Table(op.getRelation().getAttributes());
+		}
+		stack.push(new ScanExec(table));
+	}
+
+	public void visit(Project op) {
+		stack.push(new ProjectExec(stack.pop(), op.getAttributes()));
+	}
+
+	public void visit(Select op) {
+		stack.push(new SelectExec(stack.pop(), op.getPredicate(), store.getDictionary()));
+	}
+
+	public void visit(Product op) {
+		PhysicalOperator right = stack.pop();
+		PhysicalOperator left = stack.pop();
+		stack.push(new ProductExec(left, right));
+	}
+
+	public void visit(Join op) {
+		PhysicalOperator right = stack.pop();
+		PhysicalOperator left = stack.pop();
+		if (op.getAlgorithm() == JoinAlgorithm.NESTED_LOOP) {
+			stack.push(new NestedLoopJoinExec(left, right, op.getPredicate()));
+			return;
+		}
+		if (op.getAlgorithm() == JoinAlgorithm.SORT_MERGE) {
+			stack.push(new SortMergeJoinExec(left, right, op.getPredicate()));
+			return;
+		}
+		long leftTuples = op.getLeft().getOutput().getTupleCount();
+		long rightTuples = op.getRight().getOutput().getTupleCount();
+		boolean buildLeft = leftTuples <= rightTuples;
+		stack.push(new HashJoinExec(left, right, op.getPredicate(), buildLeft,
+				buildLeft ? leftTuples : rightTuples, memoryBudget, spillDirectory));
+	}
+}
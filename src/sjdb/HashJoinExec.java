@@ -0,0 +1,293 @@
+package sjdb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements the Join operator as a hash join. The build input
+ * is read into an IntHashTable keyed on the join attribute and the other
+ * (probe) input is streamed past it. The caller chooses the build side,
+ * normally the input with the smaller estimated tuple count.
+ * 
+ * If the build input turns out to be larger than the memory budget, the
+ * join falls back to a grace hash join: both inputs are partitioned on the
+ * join attribute into temporary files, and each pair of partitions is then
+ * joined in memory. A partition that is still over budget (because many
+ * tuples share a key) is joined in memory regardless. Partition files are
+ * deleted once read, or straight away if partitioning fails, and are
+ * marked for deletion on exit in case a query is abandoned part-way.
+ * 
+ * Output tuples always consist of the left input's attributes followed
+ * by the right input's, whichever side is built.
+ */
+public class HashJoinExec extends PhysicalOperator {
+	private static final int MAX_PARTITIONS = 64;
+
+	private PhysicalOperator build;
+	private PhysicalOperator probe;
+	private boolean buildLeft;
+	private int buildColumn;
+	private int probeColumn;
+	private long buildEstimate;
+	private long memoryBudget;
+	private File spillDirectory;
+
+	private Table buildTable;
+	private IntHashTable hashTable;
+	private PhysicalOperator probeInput;
+	private List<File[]> partitions;	// pairs of build and probe partition files
+	private Batch probeBatch;
+	private int probeRow;
+	private int match;
+	private Batch.Builder builder;
+
+	/**
+	 * @param left left child operator
+	 * @param right right child operator
+	 * @param predicate join predicate, whose left attribute is produced by left
+	 * @param buildLeft true to build the hash table on the left input
+	 * @param buildEstimate estimated tuple count of the build input
+	 * @param memoryBudget bytes the build input may occupy before spilling
+	 * @param spillDirectory directory for the partition files
+	 */
+	public HashJoinExec(PhysicalOperator left, PhysicalOperator right, Predicate predicate, boolean buildLeft,
+			long buildEstimate, long memoryBudget, File spillDirectory) {
+		super(ProductExec.concat(left.getAttributes(), right.getAttributes()));
+		int leftColumn = columnOf(left.getAttributes(), predicate.getLeftAttribute());
+		int rightColumn = columnOf(right.getAttributes(), predicate.getRightAttribute());
+		this.build = buildLeft ? left : right;
+		this.probe = buildLeft ? right : left;
+		this.buildLeft = buildLeft;
+		this.buildColumn = buildLeft ? leftColumn : rightColumn;
+		this.probeColumn = buildLeft ? rightColumn : leftColumn;
+		this.buildEstimate = buildEstimate;
+		this.memoryBudget = memoryBudget;
+		this.spillDirectory = spillDirectory;
+		this.match = -1;
+	}
+
+	/**
+	 * @return the number of build tuples that fit in the memory budget
+	 */
+	private long maxBuildRows() {
+		// each tuple takes its codes plus a key, a slot and a chain link
+		return Math.max(1, memoryBudget / (4L * (build.getAttributes().size() + 4)));
+	}
+
+	@Override
+	public Batch next() {
+		if (builder == null) {
+			open();
+		}
+		while (!builder.isFull()) {
+			if (match >= 0) {
+				if (buildLeft) {
+					builder.append(buildTable.getColumns(), match, probeBatch.getColumns(), probeRow);
+				} else {
+					builder.append(probeBatch.getColumns(), probeRow, buildTable.getColumns(), match);
+				}
+				match = hashTable.next(match);
+			} else if (probeBatch != null && probeRow + 1 < probeBatch.getSize()) {
+				probeRow++;
+				match = hashTable.get(probeBatch.getColumn(probeColumn)[probeRow]);
+			} else {
+				probeBatch = probeInput == null ? null : probeInput.next();
+				probeRow = -1;
+				if (probeBatch == null && !nextPartition()) {
+					break;
+				}
+			}
+		}
+		return builder.isEmpty() ? null : builder.build();
+	}
+
+	/**
+	 * Read the build input, spilling it and the probe input to disk if it
+	 * does not fit in memory.
+	 */
+	private void open() {
+		builder = new Batch.Builder(attributes.size());
+		Table table = new Table(build.getAttributes());
+		long limit = maxBuildRows();
+		Batch batch;
+		while ((batch = build.next()) != null) {
+			table.append(batch);
+			if (table.getTupleCount() > limit) {
+				partition(table);
+				return;
+			}
+		}
+		load(table);
+		probeInput = probe;
+	}
+
+	private void load(Table table) {
+		buildTable = table;
+		hashTable = new IntHashTable(table.getTupleCount());
+		int[] keys = table.getColumns()[buildColumn];
+		for (int row = 0; row < table.getTupleCount(); row++) {
+			hashTable.put(keys[row], row);
+		}
+	}
+
+	/**
+	 * Move on to the next pair of partitions, if any.
+	 * @return false if there are no more partitions
+	 */
+	private boolean nextPartition() {
+		if (partitions == null || partitions.isEmpty()) {
+			return false;
+		}
+		File[] files = partitions.remove(0);
+		try {
+			load(PhysicalOperator.materialise(new SpillReader(files[0], build.getAttributes())));
+			probeInput = new SpillReader(files[1], probe.getAttributes());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return true;
+	}
+
+	/**
+	 * Partition both inputs into temporary files on the join attribute.
+	 * @param table build tuples read so far
+	 */
+	private void partition(Table table) {
+		long rows = Math.max(buildEstimate, table.getTupleCount());
+		int count = (int) Math.min(MAX_PARTITIONS, Math.max(2, 2 * (rows / maxBuildRows() + 1)));
+		partitions = new ArrayList<File[]>();
+		SpillWriter[] buildParts = new SpillWriter[count];
+		SpillWriter[] probeParts = new SpillWriter[count];
+		boolean written = false;
+		try {
+			for (int i = 0; i < count; i++) {
+				File buildFile = createPartitionFile("sjdb-build");
+				File probeFile = createPartitionFile("sjdb-probe");
+				partitions.add(new File[] { buildFile, probeFile });
+				buildParts[i] = new SpillWriter(buildFile);
+				probeParts[i] = new SpillWriter(probeFile);
+			}
+			int[][] columns = table.getColumns();
+			for (int row = 0; row < table.getTupleCount(); row++) {
+				buildParts[partitionOf(columns[buildColumn][row], count)].write(columns, row);
+			}
+			spill(build, buildColumn, buildParts);
+			spill(probe, probeColumn, probeParts);
+			for (int i = 0; i < count; i++) {
+				buildParts[i].close();
+				probeParts[i].close();
+			}
+			written = true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (!written) {
+				discard(buildParts, probeParts);
+			}
+		}
+	}
+
+	private File createPartitionFile(String prefix) throws IOException {
+		File file = File.createTempFile(prefix, ".part", spillDirectory);
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Close and delete the partition files after partitioning has failed.
+	 */
+	private void discard(SpillWriter[] buildParts, SpillWriter[] probeParts) {
+		for (SpillWriter[] parts : new SpillWriter[][] { buildParts, probeParts }) {
+			for (SpillWriter part : parts) {
+				if (part != null) {
+					try {
+						part.close();
+					} catch (IOException e) {
+						// the file is deleted anyway
+					}
+				}
+			}
+		}
+		for (File[] files : partitions) {
+			files[0].delete();
+			files[1].delete();
+		}
+		partitions.clear();
+	}
+
+	private static void spill(PhysicalOperator input, int column, SpillWriter[] parts) throws IOException {
+		Batch batch;
+		while ((batch = input.next()) != null) {
+			int[][] columns = batch.getColumns();
+			for (int row = 0; row < batch.getSize(); row++) {
+				parts[partitionOf(columns[column][row], parts.length)].write(columns, row);
+			}
+		}
+	}
+
+	private static int partitionOf(int key, int count) {
+		// a different hash from IntHashTable's, so partitions do not cluster in the table
+		return ((key * 0x9e3779b9) >>> 8) % count;
+	}
+
+	/**
+	 * Writes tuples to a partition file as sequences of ints.
+	 */
+	private static class SpillWriter {
+		private DataOutputStream out;
+
+		SpillWriter(File file) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		}
+
+		void write(int[][] columns, int row) throws IOException {
+			for (int i = 0; i < columns.length; i++) {
+				out.writeInt(columns[i][row]);
+			}
+		}
+
+		void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the tuples in a partition file back in batches, and deletes
+	 * the file once they have all been read.
+	 */
+	private static class SpillReader extends PhysicalOperator {
+		private File file;
+		private DataInputStream in;
+		private int remaining;
+
+		SpillReader(File file, List<Attribute> attributes) throws IOException {
+			super(attributes);
+			this.file = file;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			this.remaining = (int) (file.length() / (4L * Math.max(1, attributes.size())));
+		}
+
+		@Override
+		public Batch next() {
+			try {
+				if (remaining == 0) {
+					in.close();
+					file.delete();
+					return null;
+				}
+				int size = Math.min(Batch.CAPACITY, remaining);
+				int[][] columns = new int[attributes.size()][size];
+				for (int row = 0; row < size; row++) {
+					for (int i = 0; i < columns.length; i++) {
+						columns[i][row] = in.readInt();
+					}
+				}
+				remaining -= size;
+				return new Batch(columns, size);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds an optional synopsis of the distribution of an
+ * attribute's values, used to refine selectivity estimates for predicates
+ * that compare the attribute with values. It consists of:
+ * 
+ * - a most-common-values list, giving the fraction of tuples taking
+ *   each of a handful of frequent values
+ * - an equi-depth histogram over the remaining values, given as a list
+ *   of bucket boundaries; each bucket holds the same number of tuples
+ * 
+ * Values are compared numerically when both are decimal numerals, and
+ * lexicographically otherwise (see compareValues()). The bucket boundaries
+ * are classified and parsed once, when the histogram is created. Frequencies are stored as fractions of the
+ * tuple count, so that the synopsis remains usable after the relation has
+ * been reduced by other operators.
+ * 
+ * Either part may be empty. A histogram with a single bucket simply gives
+ * the minimum and maximum values of the attribute.
+ */
+public class Histogram {
+	private List<String> mcvValues;
+	private List<Double> mcvFractions;
+	private List<String> bounds;
+	private double[] boundNumbers;
+	private double mcvTotal;
+
+	/**
+	 * Create a new histogram.
+	 * @param mcvValues most common values
+	 * @param mcvCounts number of tuples taking each of the most common values
+	 * @param bounds ascending bucket boundaries of the equi-depth histogram
+	 * @param tuples tuple count of the relation the counts were taken from
+	 */
+	public Histogram(List<String> mcvValues, List<Long> mcvCounts, List<String> bounds, long tuples) {
+		this.mcvValues = new ArrayList<String>(mcvValues);
+		this.mcvFractions = new ArrayList<Double>();
+		this.bounds = new ArrayList<String>(bounds);
+		this.boundNumbers = new double[bounds.size()];
+		for (int i = 0; i < this.boundNumbers.length; i++) {
+			this.boundNumbers[i] = number(this.bounds.get(i));
+		}
+		this.mcvTotal = 0;
+		for (Long count : mcvCounts) {
+			double fraction = tuples > 0 ? Math.min(1.0, (double) count / tuples) : 0;
+			this.mcvFractions.add(fraction);
+			this.mcvTotal += fraction;
+		}
+		this.mcvTotal = Math.min(1.0, this.mcvTotal);
+	}
+
+	/**
+	 * @return the most common values
+	 */
+	public List<String> getMostCommonValues() {
+		return mcvValues;
+	}
+
+	/**
+	 * @return the bucket boundaries of the equi-depth histogram
+	 */
+	public List<String> getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * Estimate the fraction of tuples for which the attribute takes the
+	 * given value.
+	 * @param value
+	 * @param valueCount number of distinct values taken by the attribute
+	 * @return fraction of tuples, between 0 and 1
+	 */
+	public double equalsFraction(String value, long valueCount) {
+		int mcv = mcvValues.indexOf(value);
+		if (mcv >= 0) {
+			return mcvFractions.get(mcv);
+		}
+		double number = number(value);
+		if (!bounds.isEmpty()
+				&& (compareBound(value, number, 0) < 0 || compareBound(value, number, bounds.size() - 1) > 0)) {
+			// outside the range of the histogram
+			return 0;
+		}
+		// the remaining tuples are spread uniformly over the remaining values
+		long otherValues = Math.max(1, valueCount - mcvValues.size());
+		return (1.0 - mcvTotal) / otherValues;
+	}
+
+	/**
+	 * @return true if there are bucket boundaries, so that the minimum and
+	 * maximum values of the attribute are known
+	 */
+	public boolean hasBounds() {
+		return bounds.size() > 1;
+	}
+
+	/**
+	 * Estimate the fraction of tuples for which the attribute lies within
+	 * the given range. Within a bucket, numeric values are assumed to be
+	 * spread uniformly and other values to lie half-way.
+	 * @param lower lower end of the range, or null if unbounded
+	 * @param lowerInclusive
+	 * @param upper upper end of the range, or null if unbounded
+	 * @param upperInclusive
+	 * @param valueCount number of distinct values taken by the attribute
+	 * @return fraction of tuples, between 0 and 1
+	 */
+	public double rangeFraction(String lower, boolean lowerInclusive, String upper, boolean upperInclusive,
+			long valueCount) {
+		double fraction = 0;
+		double lowerNumber = lower == null ? Double.NaN : number(lower);
+		double upperNumber = upper == null ? Double.NaN : number(upper);
+		for (int i = 0; i < mcvValues.size(); i++) {
+			String value = mcvValues.get(i);
+			if (inRange(value, number(value), lower, lowerNumber, lowerInclusive, upper, upperNumber,
+					upperInclusive)) {
+				fraction += mcvFractions.get(i);
+			}
+		}
+		
+		double from = lower == null ? 0 : position(lower, lowerNumber);
+		double to = upper == null ? 1 : position(upper, upperNumber);
+		double other = (1.0 - mcvTotal) * Math.max(0, to - from);
+		// positions treat the range as open; add the share of an included endpoint
+		if (lowerInclusive && lower != null && !mcvValues.contains(lower)) {
+			other += equalsFraction(lower, valueCount);
+		}
+		if (upperInclusive && upper != null && !mcvValues.contains(upper) && !upper.equals(lower)) {
+			other += equalsFraction(upper, valueCount);
+		}
+		return Math.max(0, Math.min(1.0, fraction + other));
+	}
+
+	private static boolean inRange(String value, double number, String lower, double lowerNumber,
+			boolean lowerInclusive, String upper, double upperNumber, boolean upperInclusive) {
+		if (lower != null) {
+			int cmp = compare(value, number, lower, lowerNumber);
+			if (cmp < 0 || (cmp == 0 && !lowerInclusive)) {
+				return false;
+			}
+		}
+		if (upper != null) {
+			int cmp = compare(value, number, upper, upperNumber);
+			if (cmp > 0 || (cmp == 0 && !upperInclusive)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the fraction of non-MCV tuples whose values are less than value
+	 */
+	private double position(String value, double number) {
+		int buckets = bounds.size() - 1;
+		if (compareBound(value, number, 0) <= 0) {
+			return 0;
+		}
+		if (compareBound(value, number, buckets) >= 0) {
+			return 1;
+		}
+		int i = 0;
+		while (compareBound(value, number, i + 1) >= 0) {
+			i++;
+		}
+		double within = 0.5;
+		double lo = boundNumbers[i];
+		double hi = boundNumbers[i + 1];
+		if (!Double.isNaN(number) && !Double.isNaN(lo) && !Double.isNaN(hi) && hi > lo) {
+			within = (number - lo) / (hi - lo);
+		}
+		return (i + within) / buckets;
+	}
+
+	private int compareBound(String value, double number, int i) {
+		return compare(value, number, bounds.get(i), boundNumbers[i]);
+	}
+
+	/**
+	 * Compare two values. Numbers (see number()) are ordered numerically
+	 * and come before all other values, which are ordered
+	 * lexicographically; numbers that are equal but written differently are
+	 * ordered by their text. This is a total order, so it can also be used
+	 * for sorting.
+	 * @param a
+	 * @param b
+	 * @return negative, zero or positive as a is less than, equal to or greater than b
+	 */
+	public static int compareValues(String a, String b) {
+		return compare(a, number(a), b, number(b));
+	}
+
+	/**
+	 * Compare two values as compareValues() does, given their numeric
+	 * values as returned by number().
+	 */
+	static int compare(String a, double x, String b, double y) {
+		boolean aNumeric = !Double.isNaN(x);
+		boolean bNumeric = !Double.isNaN(y);
+		if (aNumeric && bNumeric) {
+			int cmp = Double.compare(x, y);
+			return cmp != 0 ? cmp : a.compareTo(b);
+		} else if (aNumeric) {
+			return -1;
+		} else if (bNumeric) {
+			return 1;
+		}
+		return a.compareTo(b);
+	}
+
+	/**
+	 * Return the numeric value of a decimal numeral: an optional sign,
+	 * digits with an optional fractional part, and an optional exponent.
+	 * The text is checked before it is parsed, so other values cost a scan
+	 * of their characters rather than an exception.
+	 * @param value
+	 * @return the numeric value, or NaN if value is not a decimal numeral
+	 */
+	static double number(String value) {
+		int n = value.length();
+		int i = 0;
+		if (i < n && (value.charAt(i) == '+' || value.charAt(i) == '-')) {
+			i++;
+		}
+		int digits = 0;
+		while (i < n && isDigit(value.charAt(i))) {
+			i++;
+			digits++;
+		}
+		if (i < n && value.charAt(i) == '.') {
+			i++;
+			while (i < n && isDigit(value.charAt(i))) {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0) {
+			return Double.NaN;
+		}
+		if (i < n && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+			i++;
+			if (i < n && (value.charAt(i) == '+' || value.charAt(i) == '-')) {
+				i++;
+			}
+			int exponent = i;
+			while (i < n && isDigit(value.charAt(i))) {
+				i++;
+			}
+			if (i == exponent) {
+				return Double.NaN;
+			}
+		}
+		return i == n ? Double.parseDouble(value) : Double.NaN;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
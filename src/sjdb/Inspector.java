@@ -37,6 +37,7 @@ public class Inspector implements PlanVisitor {
 		System.out.println("  inl: " + op.getLeft().getOutput().render());
 		System.out.println("  inr: " + op.getRight().getOutput().render());
 		System.out.println("  out: " + op.getOutput().render());
+		printAlgorithm(op);
 	}
 
 	@Override
@@ -46,5 +47,12 @@ public class Inspector implements PlanVisitor {
 		System.out.println("  inl: " + op.getLeft().getOutput().render());
 		System.out.println("  inr: " + op.getRight().getOutput().render());
 		System.out.println("  out: " + op.getOutput().render());
+		printAlgorithm(op);
+	}
+
+	private void printAlgorithm(BinaryOperator op) {
+		if (op.getAlgorithm() != null) {
+			System.out.println("  alg: " + op.getAlgorithm() + " (cost " + String.format("%.1f", op.getAlgorithmCost()) + ")");
+		}
 	}
 }
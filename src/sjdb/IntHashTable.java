@@ -0,0 +1,77 @@
+package sjdb;
+
+import java.util.Arrays;
+
+/**
+ * This class is an open-addressing hash table from int keys to the rows
+ * of a build input, used by HashJoinExec. Keys are probed linearly; the
+ * rows sharing a key are chained through an array indexed by row, so
+ * neither keys nor rows are ever boxed.
+ */
+public class IntHashTable {
+	private int[] keys;
+	private int[] heads;	// first row for the key in each slot, or -1 if empty
+	private int[] next;		// next row with the same key, or -1
+	private int mask;
+
+	/**
+	 * Create a table able to hold the given number of rows.
+	 * @param rows
+	 */
+	public IntHashTable(int rows) {
+		int capacity = Integer.highestOneBit(Math.max(2, rows * 2 - 1)) << 1;
+		this.keys = new int[capacity];
+		this.heads = new int[capacity];
+		this.next = new int[Math.max(1, rows)];
+		this.mask = capacity - 1;
+		Arrays.fill(heads, -1);
+	}
+
+	private static int hash(int key) {
+		// murmur3 finaliser, so that dense dictionary codes spread out
+		key ^= key >>> 16;
+		key *= 0x85ebca6b;
+		key ^= key >>> 13;
+		key *= 0xc2b2ae35;
+		key ^= key >>> 16;
+		return key;
+	}
+
+	/**
+	 * Add a row with the given key.
+	 * @param key
+	 * @param row
+	 */
+	public void put(int key, int row) {
+		int slot = hash(key) & mask;
+		while (heads[slot] != -1 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		next[row] = heads[slot];
+		heads[slot] = row;
+	}
+
+	/**
+	 * @param key
+	 * @return the first row with the given key, or -1 if there is none
+	 */
+	public int get(int key) {
+		int slot = hash(key) & mask;
+		while (heads[slot] != -1) {
+			if (keys[slot] == key) {
+				return heads[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param row
+	 * @return the next row with the same key as the given row, or -1 if there is none
+	 */
+	public int next(int row) {
+		return next[row];
+	}
+}
@@ -28,6 +28,13 @@ public class Join extends BinaryOperator {
 		super.accept(visitor);
 		visitor.visit(this);
 	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#visitSelf(sjdb.PlanVisitor)
+	 */
+	public void visitSelf(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
 	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
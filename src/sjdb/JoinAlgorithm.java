@@ -0,0 +1,15 @@
+package sjdb;
+
+/**
+ * The physical algorithms available for Join and Product operators,
+ * chosen by the PhysicalPlanner.
+ * @see PhysicalPlanner
+ */
+public enum JoinAlgorithm {
+	/** Block nested loop; the only choice for a Product. */
+	NESTED_LOOP,
+	/** Hash join, building on the smaller input. */
+	HASH,
+	/** Sort both inputs on the join attribute and merge them. */
+	SORT_MERGE
+}
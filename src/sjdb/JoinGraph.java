@@ -0,0 +1,161 @@
+package sjdb;
+
+/**
+ * The join graph of a query: one node per relation (numbered as in
+ * PlanBuilder) and an edge between two relations for every join predicate
+ * linking them. Sets of nodes are bitmasks.
+ *
+ * Pairs of subplans worth joining are enumerated with DPccp (Moerkotte and
+ * Neumann, "Analysis of two existing and one new dynamic programming
+ * algorithm for the generation of optimal bushy join trees without cross
+ * products", VLDB 2006): every pair of disjoint, connected node sets that
+ * are linked by an edge is produced exactly once, and no other pairs are,
+ * so the number of candidates follows the shape of the graph (O(n^3) for a
+ * chain) instead of the number of subsets. The pairs come out in an order
+ * in which both halves of a pair are complete before the pair is produced,
+ * which is what dynamic programming needs.
+ */
+class JoinGraph {
+
+    /**
+     * Receives the pairs produced by enumerate().
+     */
+    interface PairConsumer {
+        void pair(long left, long right);
+    }
+
+    private final int n;
+    private final long[] adjacent;
+
+    /**
+     * @param n number of relations, at most 63
+     */
+    JoinGraph(int n) {
+        if (n >= Long.SIZE) {
+            throw new IllegalArgumentException("Too many relations for a join graph: " + n);
+        }
+        this.n = n;
+        this.adjacent = new long[n];
+    }
+
+    void addEdge(int i, int j) {
+        if (i != j) {
+            adjacent[i] |= 1L << j;
+            adjacent[j] |= 1L << i;
+        }
+    }
+
+    int size() {
+        return n;
+    }
+
+    /**
+     * @param set
+     * @return the nodes outside set that are adjacent to some node in it
+     */
+    long neighbours(long set) {
+        long ret = 0;
+        for (long rest = set; rest != 0; rest &= rest - 1) {
+            ret |= adjacent[Long.numberOfTrailingZeros(rest)];
+        }
+        return ret & ~set;
+    }
+
+    /**
+     * @return the node sets of the connected components, in order of their
+     * lowest-numbered node
+     */
+    long[] components() {
+        long[] found = new long[n];
+        int count = 0;
+        long seen = 0;
+        for (int i = 0; i < n; i++) {
+            if ((seen & (1L << i)) != 0) {
+                continue;
+            }
+            long component = 1L << i;
+            for (long frontier = component; frontier != 0; ) {
+                frontier = neighbours(component);
+                component |= frontier;
+            }
+            seen |= component;
+            found[count++] = component;
+        }
+        long[] ret = new long[count];
+        System.arraycopy(found, 0, ret, 0, count);
+        return ret;
+    }
+
+    /**
+     * Produce every csg-cmp-pair: a connected set and a connected
+     * complement linked to it by an edge, each unordered pair once.
+     * @param out
+     */
+    void enumerate(PairConsumer out) {
+        for (int i = n - 1; i >= 0; i--) {
+            long start = 1L << i;
+            emitCsg(start, out);
+            enumerateCsgRec(start, upTo(i), out);
+        }
+    }
+
+    /**
+     * @return the set of nodes numbered 0 to i
+     */
+    private static long upTo(int i) {
+        return i == Long.SIZE - 1 ? -1L : (1L << (i + 1)) - 1;
+    }
+
+    /**
+     * Extend a connected set by each non-empty subset of its neighbours
+     * outside exclude, producing pairs for each extended set before
+     * extending further. Subsets are visited in increasing numerical order
+     * (here and in enumerateCmpRec()); the dynamic programming order
+     * depends on it.
+     */
+    private void enumerateCsgRec(long set, long exclude, PairConsumer out) {
+        long neighbours = neighbours(set) & ~exclude;
+        if (neighbours == 0) {
+            return;
+        }
+        for (long sub = neighbours & -neighbours; sub != 0; sub = (sub - neighbours) & neighbours) {
+            emitCsg(set | sub, out);
+        }
+        for (long sub = neighbours & -neighbours; sub != 0; sub = (sub - neighbours) & neighbours) {
+            enumerateCsgRec(set | sub, exclude | neighbours, out);
+        }
+    }
+
+    /**
+     * Produce the pairs whose first half is the given connected set.
+     */
+    private void emitCsg(long left, PairConsumer out) {
+        long exclude = left | upTo(Long.numberOfTrailingZeros(left));
+        long neighbours = neighbours(left) & ~exclude;
+        for (int i = Long.SIZE - 1 - Long.numberOfLeadingZeros(neighbours); i >= 0; i--) {
+            long right = 1L << i;
+            if ((neighbours & right) == 0) {
+                continue;
+            }
+            out.pair(left, right);
+            enumerateCmpRec(left, right, exclude | (upTo(i) & neighbours), out);
+        }
+    }
+
+    /**
+     * Extend the complement of a pair by subsets of its neighbours outside
+     * exclude.
+     */
+    private void enumerateCmpRec(long left, long right, long exclude, PairConsumer out) {
+        long neighbours = neighbours(right) & ~exclude;
+        if (neighbours == 0) {
+            return;
+        }
+        for (long sub = neighbours & -neighbours; sub != 0; sub = (sub - neighbours) & neighbours) {
+            out.pair(left, right | sub);
+        }
+        for (long sub = neighbours & -neighbours; sub != 0; sub = (sub - neighbours) & neighbours) {
+            enumerateCmpRec(left, right | sub, exclude | neighbours, out);
+        }
+    }
+}
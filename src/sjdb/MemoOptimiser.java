@@ -0,0 +1,716 @@
+package sjdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rule-based optimiser in the style of Cascades (Graefe, "The Cascades
+ * framework for query optimization", 1995).
+ *
+ * The memo holds groups of logically equivalent expressions. A group is
+ * identified by the relations it joins and the predicates it has applied
+ * (bitmasks over the scans and the predicates of the query), and its
+ * expressions are operators whose inputs are other groups, so each
+ * subplan is represented once however many plans contain it. The memo
+ * starts from the canonical plan: every predicate in one SELECT over a
+ * left-deep PRODUCT of the scans. Transformation rules then add
+ * equivalent expressions:
+ *
+ * - join commutativity: A JOIN B to B JOIN A (and the same for PRODUCT)
+ * - join associativity: (A JOIN B) JOIN C to A JOIN (B JOIN C), when some
+ *   outer predicate links B and C
+ * - select pushdown: a SELECT over a JOIN or PRODUCT moves its predicates
+ *   into whichever input holds their attributes, and merges with a SELECT
+ *   below it
+ * - select over product to join: a SELECT whose predicates all link the
+ *   two inputs of a PRODUCT turns it into a JOIN
+ *
+ * A JOIN applies every predicate linking its inputs, as PlanBuilder does:
+ * the first is the join predicate and the others are SELECTs over it. So
+ * the choice of join predicate does not add groups: apart from those of
+ * the initial PRODUCTs and of PRODUCTs left by select pushdown, every
+ * group has applied all the predicates over its relations.
+ *
+ * Projection is not a memo expression, since the attributes a group must
+ * produce follow from its predicates: those of the final PROJECT and those
+ * of the predicates still to be applied. The inputs of every JOIN and
+ * PRODUCT, and the result, are projected down to them (project pushdown),
+ * as PlanBuilder does.
+ *
+ * Each rule is applied once to each expression (and each expression of
+ * its input, for rules matching two levels), and an expression already in
+ * its group is not added again, so a new rule adds only the expressions it
+ * produces rather than multiplying the search.
+ *
+ * Once the memo is explored, groups are optimised top down with
+ * branch-and-bound: a group is asked for a plan no dearer than a limit,
+ * the cost of the best plan found so far in the enclosing group less what
+ * its other inputs are known to cost. A group that has no plan within its
+ * limit is abandoned without costing the groups below it, and remembers
+ * the limit it failed, so that pruned parts of the space are never costed
+ * again. Plans are built as PlanNodes, so that a subplan shared by many
+ * candidates is costed by the Estimator once.
+ *
+ * The search is restricted in two ways. Joins follow the predicates as
+ * EquivalenceClasses.close() leaves them, so two relations sharing a class
+ * of attributes but no predicate are joined only through the others, not
+ * directly as PlanBuilder would join them. And, as in DPJoinEnumerator,
+ * each group keeps only its cheapest plan, which assumes that the best plan
+ * for a set of relations is part of the best plan for any larger set. The
+ * Estimator does not quite honour that: the value counts of a subplan's
+ * output depend on the order of its joins, so a dearer subplan can lead
+ * to a cheaper plan overall. The PERMUTATION strategy costs whole plans
+ * and finds such plans: for the six-relation star of WorkloadGenerator
+ * with seed 42 it finds one costing 491718, where the memo finds 491730.
+ *
+ * Relations and predicates are numbered within a long, so the memo holds
+ * at most 63 of each; see fits().
+ */
+class MemoOptimiser {
+
+    /**
+     * A transformation rule, adding the expressions equivalent to a given
+     * one to its group.
+     */
+    interface Rule {
+        /**
+         * @return whether the rule matches an expression together with an
+         * expression of its (left) input group
+         */
+        boolean bindsInput();
+
+        /**
+         * @param input an expression of expr.left if the rule binds its
+         * input, otherwise null
+         */
+        void apply(MemoOptimiser memo, Group group, Expr expr, Expr input);
+    }
+
+    /**
+     * Rules to apply to an expression of a group, or to it and an
+     * expression of its input.
+     */
+    private static final class Task {
+        final Group group;
+        final Expr expr;
+        final Expr input;
+
+        Task(Group group, Expr expr, Expr input) {
+            this.group = group;
+            this.expr = expr;
+            this.input = input;
+        }
+    }
+
+    private static final Rule[] RULES = {
+        new JoinCommutativity(),
+        new JoinAssociativity(),
+        new SelectPushdown(),
+        new SelectToJoin()
+    };
+
+    /**
+     * An operator whose inputs are groups. For a SELECT, preds holds its
+     * predicates; for a JOIN, the predicates linking its inputs.
+     */
+    static final class Expr {
+        final PlanNode.Kind kind;
+        final int relation;
+        final long preds;
+        final Group left;
+        final Group right;
+
+        Expr(PlanNode.Kind kind, int relation, long preds, Group left, Group right) {
+            this.kind = kind;
+            this.relation = relation;
+            this.preds = preds;
+            this.left = left;
+            this.right = right;
+        }
+
+        boolean isBinary() {
+            return kind == PlanNode.Kind.JOIN || kind == PlanNode.Kind.PRODUCT;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = kind.hashCode();
+            h = 31 * h + relation;
+            h = 31 * h + Long.hashCode(preds);
+            h = 31 * h + (left == null ? 0 : left.id);
+            return 31 * h + (right == null ? 0 : right.id);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Expr)) {
+                return false;
+            }
+            Expr rhs = (Expr) obj;
+            return kind == rhs.kind && relation == rhs.relation && preds == rhs.preds
+                    && left == rhs.left && right == rhs.right;
+        }
+    }
+
+    /**
+     * A set of equivalent expressions, joining the same relations with
+     * the same predicates applied.
+     */
+    static final class Group {
+        final int id;
+        final long rels;
+        final long preds;
+        final List<Expr> exprs = new ArrayList<>();
+        final Set<Expr> seen = new HashSet<>();
+        final List<Task> consumers = new ArrayList<>();     // expressions over this group
+        PlanNode best;
+        long bestCost;              // of best, projected
+        long failedUpTo = -1;       // no plan costs this much or less
+
+        Group(int id, long rels, long preds) {
+            this.id = id;
+            this.rels = rels;
+            this.preds = preds;
+        }
+    }
+
+    private final Estimator estimator;
+    private final OptimiserMetrics metrics;
+    private final PlanNode.Factory factory = new PlanNode.Factory();
+    private final List<Scan> scans;
+    private final List<Predicate> preds;
+    private final Predicate[] swapped;      // attr=attr predicates with their sides exchanged
+    private final int[] leftAttr;           // attribute numbers, -1 for none
+    private final int[] rightAttr;
+    private final long[] predRels;          // relations a predicate refers to
+    private final long[] leftRel;           // relation of a predicate's left attribute
+    private final int attrCount;
+    private final List<Attribute> finalAttrs;   // null if the query has no final PROJECT
+    private final Map<Long, Map<Long, Group>> groups = new HashMap<>();
+    private final Deque<Task> tasks = new ArrayDeque<>();
+    private int groupCount;
+
+    /**
+     * @param relations number of relations in a query
+     * @param predicates number of predicates in it
+     * @return whether the memo can hold the query
+     */
+    static boolean fits(int relations, int predicates) {
+        return relations < Long.SIZE && predicates < Long.SIZE;
+    }
+
+    /**
+     * @param estimator used to cost candidate plans
+     * @param scans scans of the relations in the query
+     * @param predList predicates of the query, including those implied
+     * @param plan the canonical plan being optimised
+     * @param metrics planning metrics to record, or null
+     */
+    MemoOptimiser(Estimator estimator, List<Scan> scans, List<Predicate> predList,
+                  Operator plan, OptimiserMetrics metrics) {
+        if (scans.size() >= Long.SIZE) {
+            throw new IllegalArgumentException("Too many relations for the memo: " + scans.size());
+        }
+        this.estimator = estimator;
+        this.metrics = metrics;
+        this.scans = new ArrayList<>(scans);
+        this.finalAttrs = plan instanceof Project ? ((Project) plan).getAttributes() : null;
+
+        Map<Attribute, Integer> owner = new HashMap<>();
+        Map<Attribute, Integer> number = new HashMap<>();
+        for (int i = 0; i < scans.size(); i++) {
+            for (Attribute attr : scans.get(i).getOutput().getAttributes()) {
+                owner.put(attr, i);
+                number.put(attr, number.size());
+            }
+        }
+        this.attrCount = number.size();
+
+        // predicates on attributes no relation produces apply to nothing
+        this.preds = new ArrayList<>();
+        for (Predicate pred : predList) {
+            if (owner.containsKey(pred.getLeftAttribute())
+                    && (pred.comparesValue() || owner.containsKey(pred.getRightAttribute()))) {
+                this.preds.add(pred);
+            }
+        }
+        if (this.preds.size() >= Long.SIZE) {
+            throw new IllegalArgumentException("Too many predicates for the memo: " + this.preds.size());
+        }
+        int n = this.preds.size();
+        swapped = new Predicate[n];
+        leftAttr = new int[n];
+        rightAttr = new int[n];
+        predRels = new long[n];
+        leftRel = new long[n];
+        for (int j = 0; j < n; j++) {
+            Predicate pred = this.preds.get(j);
+            leftAttr[j] = number.get(pred.getLeftAttribute());
+            leftRel[j] = 1L << owner.get(pred.getLeftAttribute());
+            predRels[j] = leftRel[j];
+            rightAttr[j] = -1;
+            if (!pred.comparesValue()) {
+                rightAttr[j] = number.get(pred.getRightAttribute());
+                predRels[j] |= 1L << owner.get(pred.getRightAttribute());
+                swapped[j] = new Predicate(pred.getRightAttribute(), pred.getLeftAttribute());
+            }
+        }
+    }
+
+    /**
+     * @return the cheapest plan found
+     */
+    Operator optimise() {
+        Group root = group(1L << 0, 0);
+        addExpr(root, new Expr(PlanNode.Kind.SCAN, 0, 0, null, null));
+        for (int i = 1; i < scans.size(); i++) {
+            Group scan = group(1L << i, 0);
+            addExpr(scan, new Expr(PlanNode.Kind.SCAN, i, 0, null, null));
+            Group product = group(root.rels | scan.rels, 0);
+            addExpr(product, new Expr(PlanNode.Kind.PRODUCT, -1, 0, root, scan));
+            root = product;
+        }
+        long all = preds.isEmpty() ? 0 : -1L >>> (Long.SIZE - preds.size());
+        root = selectGroup(root, all);
+        explore();
+
+        PlanNode best = optimiseGroup(root, Long.MAX_VALUE);
+        PlanNode result = project(root, best);
+        if (metrics != null) {
+            metrics.offerCost(result.getCost(estimator));
+        }
+        return result.toOperator();
+    }
+
+    /**
+     * Find the cheapest plan for a group costing no more than limit. Plans
+     * are compared by the cost of their projection (see project()), which
+     * is what a JOIN or PRODUCT over the group pays for them.
+     * @return the plan, unprojected, or null if there is none within the limit
+     */
+    private PlanNode optimiseGroup(Group group, long limit) {
+        if (group.best != null) {
+            return group.bestCost <= limit ? group.best : null;
+        }
+        if (limit <= group.failedUpTo) {
+            return null;
+        }
+        PlanNode best = null;
+        long bound = limit;
+        for (int i = 0; i < group.exprs.size(); i++) {
+            Expr expr = group.exprs.get(i);
+            if (metrics != null) {
+                metrics.planBuilt();
+            }
+            PlanNode candidate = build(expr, bound);
+            if (candidate == null) {
+                continue;
+            }
+            long cost = project(group, candidate).getCost(estimator);
+            if (metrics != null) {
+                metrics.candidateCosted();
+            }
+            if (cost <= bound) {
+                best = candidate;
+                bound = cost - 1;
+            }
+        }
+        if (best == null) {
+            group.failedUpTo = Math.max(group.failedUpTo, limit);
+            return null;
+        }
+        // everything pruned costs more than best, so best is the optimum
+        group.best = best;
+        group.bestCost = bound + 1;
+        return best;
+    }
+
+    /**
+     * @return the least any plan for the group can cost, as known so far
+     */
+    private long lowerBound(Group group) {
+        return group.best != null ? group.bestCost : group.failedUpTo + 1;
+    }
+
+    /**
+     * Build the plan for an expression from the best plans of its input
+     * groups, if they cost no more than limit between them.
+     */
+    private PlanNode build(Expr expr, long limit) {
+        switch (expr.kind) {
+        case SCAN:
+            return factory.scan((NamedRelation) scans.get(expr.relation).getRelation());
+        case SELECT:
+            // the input is not projected, so its cost bounds the SELECT's
+            // only before projection; search it without a limit
+            PlanNode input = optimiseGroup(expr.left, Long.MAX_VALUE);
+            if (input == null) {
+                return null;
+            }
+            for (long rest = expr.preds; rest != 0; rest &= rest - 1) {
+                input = factory.select(input, preds.get(Long.numberOfTrailingZeros(rest)));
+            }
+            return input;
+        default:
+            long rightBound = lowerBound(expr.right);
+            if (limit - rightBound < 0) {
+                return null;
+            }
+            PlanNode left = optimiseGroup(expr.left, limit - rightBound);
+            if (left == null) {
+                return null;
+            }
+            PlanNode right = optimiseGroup(expr.right, limit - expr.left.bestCost);
+            if (right == null) {
+                return null;
+            }
+            left = project(expr.left, left);
+            right = project(expr.right, right);
+            if (expr.kind == PlanNode.Kind.PRODUCT) {
+                return factory.product(left, right);
+            }
+            int j = Long.numberOfTrailingZeros(expr.preds);
+            // JOIN expects the left attribute to come from its left input
+            Predicate pred = (leftRel[j] & expr.left.rels) != 0 ? preds.get(j) : swapped[j];
+            PlanNode join = factory.join(left, right, pred);
+            for (long rest = expr.preds & (expr.preds - 1); rest != 0; rest &= rest - 1) {
+                join = factory.select(join, preds.get(Long.numberOfTrailingZeros(rest)));
+            }
+            return join;
+        }
+    }
+
+    /**
+     * Project a plan for a group down to the attributes of the final
+     * PROJECT and of the predicates the group has still to apply.
+     */
+    private PlanNode project(Group group, PlanNode plan) {
+        if (finalAttrs == null) {
+            return plan;
+        }
+        Set<Attribute> required = new LinkedHashSet<>(finalAttrs);
+        for (int j = 0; j < preds.size(); j++) {
+            if ((group.preds & (1L << j)) == 0) {
+                required.add(preds.get(j).getLeftAttribute());
+                if (rightAttr[j] >= 0) {
+                    required.add(preds.get(j).getRightAttribute());
+                }
+            }
+        }
+        Relation output = plan.getOutput(estimator);
+        List<Attribute> attrs = new ArrayList<>();
+        for (Attribute attr : output.getAttributes()) {
+            if (required.contains(attr)) {
+                attrs.add(attr);
+            }
+        }
+        if (attrs.isEmpty() || attrs.size() == output.getAttributes().size()) {
+            return plan;
+        }
+        return factory.project(plan, attrs);
+    }
+
+    /**
+     * Apply the rules until they add no more expressions. Each expression
+     * is matched once on its own and once with each expression of its
+     * input, including those added to the input after it.
+     */
+    private void explore() {
+        while (!tasks.isEmpty()) {
+            Task task = tasks.poll();
+            if (task.input != null) {
+                for (Rule rule : RULES) {
+                    if (rule.bindsInput()) {
+                        rule.apply(this, task.group, task.expr, task.input);
+                    }
+                }
+                continue;
+            }
+            for (Rule rule : RULES) {
+                if (!rule.bindsInput()) {
+                    rule.apply(this, task.group, task.expr, null);
+                }
+            }
+            Group input = task.expr.left;
+            if (input != null && task.expr.kind != PlanNode.Kind.PRODUCT) {
+                input.consumers.add(task);
+                for (int i = 0; i < input.exprs.size(); i++) {
+                    tasks.add(new Task(task.group, task.expr, input.exprs.get(i)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Add an expression to a group unless it is there already, and queue
+     * the rules matching it.
+     */
+    void addExpr(Group group, Expr expr) {
+        if (group.seen.add(expr)) {
+            group.exprs.add(expr);
+            tasks.add(new Task(group, expr, null));
+            for (int i = 0; i < group.consumers.size(); i++) {
+                Task consumer = group.consumers.get(i);
+                tasks.add(new Task(consumer.group, consumer.expr, expr));
+            }
+        }
+    }
+
+    /**
+     * @return the group joining rels with preds applied, together with the
+     * attr=attr predicates over rels that they imply
+     */
+    Group group(long rels, long applied) {
+        long closed = applied | impliedOver(rels, applied);
+        Map<Long, Group> byPreds = groups.get(rels);
+        if (byPreds == null) {
+            byPreds = new HashMap<>();
+            groups.put(rels, byPreds);
+        }
+        Group ret = byPreds.get(closed);
+        if (ret == null) {
+            ret = new Group(groupCount++, rels, closed);
+            byPreds.put(closed, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the group of a SELECT of the given predicates over input,
+     * with the SELECT added to it, or input if they add nothing
+     */
+    Group selectGroup(Group input, long select) {
+        long needed = withoutImplied(input.preds, select);
+        if (needed == 0) {
+            return input;
+        }
+        Group ret = group(input.rels, input.preds | needed);
+        addExpr(ret, new Expr(PlanNode.Kind.SELECT, -1, needed, input, null));
+        return ret;
+    }
+
+    /**
+     * Add a SELECT of the given predicates over input to a group.
+     */
+    void addSelect(Group group, long select, Group input) {
+        long needed = withoutImplied(input.preds, select);
+        if (needed != 0) {
+            addExpr(group, new Expr(PlanNode.Kind.SELECT, -1, needed, input, null));
+        }
+    }
+
+    /**
+     * Add a JOIN of left and right applying the given linking predicates
+     * to a group, or a PRODUCT if they add nothing.
+     */
+    void addJoin(Group group, long link, Group left, Group right) {
+        long needed = withoutImplied(left.preds | right.preds, link);
+        PlanNode.Kind kind = needed == 0 ? PlanNode.Kind.PRODUCT : PlanNode.Kind.JOIN;
+        addExpr(group, new Expr(kind, -1, needed, left, right));
+    }
+
+    /**
+     * @return the predicates in preds that refer only to relations in rels
+     */
+    long predsWithin(long preds, long rels) {
+        long ret = 0;
+        for (long rest = preds; rest != 0; rest &= rest - 1) {
+            int j = Long.numberOfTrailingZeros(rest);
+            if ((predRels[j] & ~rels) == 0) {
+                ret |= 1L << j;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the attr=attr predicates in preds linking left and right
+     */
+    long predsLinking(long preds, long left, long right) {
+        long ret = 0;
+        for (long rest = preds; rest != 0; rest &= rest - 1) {
+            int j = Long.numberOfTrailingZeros(rest);
+            if (rightAttr[j] >= 0 && (predRels[j] & left) != 0 && (predRels[j] & right) != 0
+                    && (predRels[j] & ~(left | right)) == 0) {
+                ret |= 1L << j;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the attr=attr predicates over rels not in applied that the
+     * applied ones imply
+     */
+    private long impliedOver(long rels, long applied) {
+        int[] parent = classes(applied);
+        long ret = 0;
+        for (int j = 0; j < preds.size(); j++) {
+            if ((applied & (1L << j)) == 0 && rightAttr[j] >= 0 && (predRels[j] & ~rels) == 0
+                    && find(parent, leftAttr[j]) == find(parent, rightAttr[j])) {
+                ret |= 1L << j;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the predicates of select, in order, leaving out attr=attr
+     * predicates implied by applied and the predicates kept before them
+     */
+    private long withoutImplied(long applied, long select) {
+        int[] parent = classes(applied);
+        long ret = 0;
+        for (long rest = select & ~applied; rest != 0; rest &= rest - 1) {
+            int j = Long.numberOfTrailingZeros(rest);
+            if (rightAttr[j] >= 0) {
+                int l = find(parent, leftAttr[j]);
+                int r = find(parent, rightAttr[j]);
+                if (l == r) {
+                    continue;
+                }
+                parent[l] = r;
+            }
+            ret |= 1L << j;
+        }
+        return ret;
+    }
+
+    /**
+     * @return union-find over the attributes, merged by the attr=attr
+     * predicates in preds
+     */
+    private int[] classes(long preds) {
+        int[] parent = new int[attrCount];
+        for (int i = 0; i < attrCount; i++) {
+            parent[i] = i;
+        }
+        for (long rest = preds; rest != 0; rest &= rest - 1) {
+            int j = Long.numberOfTrailingZeros(rest);
+            if (rightAttr[j] >= 0) {
+                parent[find(parent, leftAttr[j])] = find(parent, rightAttr[j]);
+            }
+        }
+        return parent;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * A JOIN B = B JOIN A, A TIMES B = B TIMES A
+     */
+    private static class JoinCommutativity implements Rule {
+        @Override
+        public boolean bindsInput() {
+            return false;
+        }
+
+        @Override
+        public void apply(MemoOptimiser memo, Group group, Expr expr, Expr input) {
+            if (expr.isBinary()) {
+                memo.addExpr(group, new Expr(expr.kind, -1, expr.preds, expr.right, expr.left));
+            }
+        }
+    }
+
+    /**
+     * (A op B) JOIN C = A op' (B JOIN C), if some join predicate links B
+     * and C; those linking A and C move to op'
+     */
+    private static class JoinAssociativity implements Rule {
+        @Override
+        public boolean bindsInput() {
+            return true;
+        }
+
+        @Override
+        public void apply(MemoOptimiser memo, Group group, Expr expr, Expr lower) {
+            if (expr.kind != PlanNode.Kind.JOIN || !lower.isBinary()) {
+                return;
+            }
+            Group outer = expr.right;
+            long link = memo.predsWithin(expr.preds, lower.right.rels | outer.rels);
+            if (link == 0) {
+                return;
+            }
+            Group right = memo.group(lower.right.rels | outer.rels, lower.right.preds | outer.preds | link);
+            memo.addJoin(right, link, lower.right, outer);
+            memo.addJoin(group, lower.preds | (expr.preds & ~link), lower.left, right);
+        }
+    }
+
+    /**
+     * SELECT over A op B moves its predicates into A and B where it can;
+     * SELECT over SELECT merges the two
+     */
+    private static class SelectPushdown implements Rule {
+        @Override
+        public boolean bindsInput() {
+            return true;
+        }
+
+        @Override
+        public void apply(MemoOptimiser memo, Group group, Expr expr, Expr lower) {
+            if (expr.kind != PlanNode.Kind.SELECT) {
+                return;
+            }
+            if (lower.kind == PlanNode.Kind.SELECT) {
+                memo.addSelect(group, expr.preds | lower.preds, lower.left);
+                return;
+            }
+            if (!lower.isBinary()) {
+                return;
+            }
+            long toLeft = memo.predsWithin(expr.preds, lower.left.rels);
+            long toRight = memo.predsWithin(expr.preds, lower.right.rels);
+            if ((toLeft | toRight) == 0) {
+                return;
+            }
+            Group left = memo.selectGroup(lower.left, toLeft);
+            Group right = memo.selectGroup(lower.right, toRight);
+            Expr pushed = new Expr(lower.kind, -1, lower.preds, left, right);
+            long rest = expr.preds & ~(toLeft | toRight);
+            Group joined = memo.group(expr.left.rels, left.preds | right.preds | lower.preds);
+            if (joined == group) {
+                memo.addExpr(group, pushed);
+            } else {
+                memo.addExpr(joined, pushed);
+                memo.addSelect(group, rest, joined);
+            }
+        }
+    }
+
+    /**
+     * SELECT over A TIMES B = A JOIN B, if every predicate links A and B
+     */
+    private static class SelectToJoin implements Rule {
+        @Override
+        public boolean bindsInput() {
+            return true;
+        }
+
+        @Override
+        public void apply(MemoOptimiser memo, Group group, Expr expr, Expr lower) {
+            if (expr.kind != PlanNode.Kind.SELECT || lower.kind != PlanNode.Kind.PRODUCT) {
+                return;
+            }
+            // predicates within A or B are pushed into them first
+            if (memo.predsLinking(expr.preds, lower.left.rels, lower.right.rels) == expr.preds) {
+                memo.addJoin(group, expr.preds, lower.left, lower.right);
+            }
+        }
+    }
+}
@@ -18,11 +18,18 @@ public class NamedRelation extends Relation {
 	 * @param name The name of the relation
 	 * @param size The tuple count
 	 */
-	public NamedRelation(String name, int size) {
+	public NamedRelation(String name, long size) {
 		super(size);
 		this.name = name;
 	}
 
+	/**
+	 * @return the name of the relation
+	 */
+	public String getName() {
+		return name;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
@@ -0,0 +1,27 @@
+package sjdb;
+
+/**
+ * This class implements the Join operator as a block nested loop over
+ * the pairs produced by ProductExec, keeping those that satisfy the
+ * join predicate.
+ */
+public class NestedLoopJoinExec extends ProductExec {
+	private int leftColumn;
+	private int rightColumn;
+
+	/**
+	 * @param left left child operator
+	 * @param right right child operator
+	 * @param predicate join predicate, whose left attribute is produced by left
+	 */
+	public NestedLoopJoinExec(PhysicalOperator left, PhysicalOperator right, Predicate predicate) {
+		super(left, right);
+		this.leftColumn = columnOf(left.getAttributes(), predicate.getLeftAttribute());
+		this.rightColumn = columnOf(right.getAttributes(), predicate.getRightAttribute());
+	}
+
+	@Override
+	protected boolean matches(int[][] outer, int outerRow, int[][] inner, int innerRow) {
+		return outer[leftColumn][outerRow] == inner[rightColumn][innerRow];
+	}
+}
@@ -6,6 +6,7 @@ package sjdb;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * This abstract class represents an operator in a query, and
@@ -23,9 +24,21 @@ public abstract class Operator {
 	 * The relation produced by this operator as output.
 	 */
 	protected Relation output;
+	/**
+	 * The estimated cost of the subplan rooted at this operator, or -1
+	 * if it has not been estimated yet.
+	 */
+	protected long cost;
+	/**
+	 * The classes of attributes made equal by the attr=attr predicates
+	 * in the subplan rooted at this operator, or null if they have not
+	 * been worked out yet (see EquivalenceClasses).
+	 */
+	protected Map<Attribute, Attribute> equalities;
 	
 	public Operator() {
 		this.inputs = new ArrayList<Operator>();
+		this.cost = -1;
 	}
 	
 	/**
@@ -63,6 +76,22 @@ public abstract class Operator {
 		this.output = reln;
 	}
 	
+	/**
+	 * Return the estimated cost of the subplan rooted at this operator.
+	 * @return Cost, or -1 if not yet estimated
+	 */
+	public long getCost() {
+		return this.cost;
+	}
+	
+	/**
+	 * Set the estimated cost of the subplan rooted at this operator.
+	 * @param cost Cost of this operator and all operators below it
+	 */
+	public void setCost(long cost) {
+		this.cost = cost;
+	}
+	
 	/**
 	 * Accept a visitor to this operator.
 	 * @param visitor Visitor to be accepted
@@ -73,4 +102,12 @@ public abstract class Operator {
 			iter.next().accept(visitor);
 		}
 	}
+
+	/**
+	 * Visit this operator alone, without visiting its inputs. This lets
+	 * a visitor dispatch on the type of a single operator, as the
+	 * Estimator does when costing a plan incrementally.
+	 * @param visitor Visitor to be accepted
+	 */
+	public abstract void visitSelf(PlanVisitor visitor);
 }
@@ -1,18 +1,55 @@
 package sjdb;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Optimiser implements PlanVisitor {
 
+    /**
+     * Join-ordering strategies available to optimise().
+     */
+    public enum Strategy {
+        /** Search every ordering of the remaining predicates (n! candidates), pruned by cost. */
+        PERMUTATION,
+        /** Bottom-up dynamic programming over subsets of relations. */
+        DYNAMIC_PROGRAMMING,
+        /** Greedy ordering improved by simulated annealing within the planning budget. */
+        RANDOMISED,
+        /**
+         * Rule-based search over a memo of equivalent subplans, with branch-and-bound (see MemoOptimiser);
+         * dynamic programming for queries the memo cannot hold.
+         */
+        CASCADES
+    }
+
+    /** Default planning-time budget for the randomised search, in milliseconds. */
+    public static final long DEFAULT_PLANNING_BUDGET = 200;
+    /** Default number of relations above which exhaustive search is not attempted. */
+    public static final int DEFAULT_EXHAUSTIVE_LIMIT = 15;
+    /** Number of predicate orderings below which the permutation search is not split across threads. */
+    private static final int PARALLEL_GRAIN = 64;
+
     // No duplicates because only Attribute overrides equals() and hashCode()
     private final Catalogue catalogue;
+    private CatalogueSnapshot snapshot;
     private final List<Scan> scanList;
     private final List<Predicate> predList;
     private final List<Operator> opList;        // store newly created ops
     private final Estimator estimator;
+    private Strategy strategy;
+    private long planningBudget;
+    private int exhaustiveLimit;
+    private long seed;
+    private boolean bushy;
+    private int parallelism;
+    private OptimiserMetrics metrics;
 
     public Optimiser(Catalogue catalogue) {
         this.catalogue = catalogue;
@@ -20,9 +57,94 @@ public class Optimiser implements PlanVisitor {
         predList = new ArrayList<>();
         opList = new ArrayList<>();
         estimator = new Estimator();
+        strategy = Strategy.PERMUTATION;
+        planningBudget = DEFAULT_PLANNING_BUDGET;
+        exhaustiveLimit = DEFAULT_EXHAUSTIVE_LIMIT;
+        seed = 0;
+        bushy = false;
+        parallelism = 0;
+    }
+
+    /**
+     * Choose the join-ordering strategy used by optimise().
+     * @param strategy
+     */
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Set the wall-clock budget for the randomised search. The time is
+     * measured from the start of join enumeration.
+     * @param millis
+     */
+    public void setPlanningBudget(long millis) {
+        this.planningBudget = millis;
+    }
+
+    /**
+     * Queries joining more relations than this are planned with the
+     * randomised search whatever strategy has been chosen (and those
+     * joining more than the randomised search can hold, greedily).
+     * @param relations
+     */
+    public void setExhaustiveLimit(int relations) {
+        this.exhaustiveLimit = relations;
+    }
+
+    /**
+     * Allow dynamic programming to consider bushy plans, in which both
+     * inputs of a join may themselves be joins. Off by default, since it
+     * raises planning time from O(n 2^n) to O(3^n) candidates.
+     * @param bushy
+     */
+    public void setBushy(boolean bushy) {
+        this.bushy = bushy;
     }
 
     /**
+     * Set the number of threads that cost candidate plans in the
+     * permutation search: 1 costs them on the calling thread, and 0 (the
+     * default) uses the common ForkJoinPool. The plan chosen is the same
+     * whatever the number of threads.
+     * @param threads
+     */
+    public void setParallelism(int threads) {
+        this.parallelism = threads;
+    }
+
+    /**
+     * Record planning metrics for the next call to optimise() in the given
+     * object, or stop recording if it is null (the default).
+     * @param metrics
+     */
+    public void setMetrics(OptimiserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Seed the random moves of the randomised search.
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Return the catalogue snapshot pinned by optimise(), whose statistics
+     * the optimised plan was costed with.
+     * @return the snapshot, or null if optimise() has not been called
+     */
+    public CatalogueSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Add the predicates implied by equalities between attributes.
      * Move SELECT operators down the tree.
      * Reorder subtrees to put most restrictive SELECT first.
      * Combine PRODUCT and SELECT to create JOIN.
@@ -31,9 +153,86 @@ public class Optimiser implements PlanVisitor {
      * @return
      */
     public Operator optimise(Operator plan) {
+        return optimise(plan, catalogue.snapshot());
+    }
+
+    /**
+     * Optimise a plan against a snapshot the caller has already pinned.
+     * @param plan
+     * @param snapshot snapshot of the optimiser's catalogue
+     * @return
+     */
+    Operator optimise(Operator plan, CatalogueSnapshot snapshot) {
+        this.snapshot = snapshot;
+        if (metrics != null) {
+            metrics.start(strategy);
+            estimator.setMetrics(metrics);
+        }
         plan.accept(this);
+        List<Predicate> closed = EquivalenceClasses.close(predList);
+        predList.clear();
+        predList.addAll(closed);
+
+        Operator optimised;
+        if (strategy == Strategy.CASCADES && scanList.size() <= exhaustiveLimit
+                && MemoOptimiser.fits(scanList.size(), predList.size())) {
+            // pushdown is done by the memo's rules
+            for (Scan scan : scanList) {
+                estimator.getCost(scan);
+            }
+            if (metrics != null) {
+                metrics.pushdownDone();
+            }
+            optimised = finish(new MemoOptimiser(estimator, scanList, predList, plan, metrics).optimise(), plan);
+            if (metrics != null) {
+                metrics.joinOrderingDone();
+            }
+            return optimised;
+        }
+
         pushSelectAndProjectDown(opList, plan, scanList, predList);
-        return reorderSubtrees(opList, plan, predList);
+        if (metrics != null) {
+            metrics.pushdownDone();
+        }
+        if (opList.size() > RandomisedJoinEnumerator.MAX_RELATIONS) {
+            optimised = greedyPlan(opList, plan, predList);
+        } else if (strategy == Strategy.RANDOMISED || opList.size() > exhaustiveLimit) {
+            optimised = new RandomisedJoinEnumerator(estimator, opList, predList, plan, planningBudget * 1000000L,
+                    seed, metrics)
+                    .enumerate();
+        } else if (strategy == Strategy.DYNAMIC_PROGRAMMING || strategy == Strategy.CASCADES) {
+            optimised = new DPJoinEnumerator(estimator, opList, predList, plan, bushy, metrics).enumerate();
+        } else {
+            optimised = reorderSubtrees(opList, plan, predList);
+        }
+        optimised = finish(optimised, plan);
+        if (metrics != null) {
+            metrics.offerCost(estimator.getCost(optimised));
+            metrics.joinOrderingDone();
+        }
+        return optimised;
+    }
+
+    /**
+     * Make an optimised plan produce the attributes of the query's final
+     * PROJECT, in the order the query lists them. A PROJECT at the top of
+     * the plan is replaced, otherwise one is added.
+     * @param optimised
+     * @param plan the canonical plan
+     * @return
+     */
+    private Operator finish(Operator optimised, Operator plan) {
+        if (!(plan instanceof Project)) {
+            return optimised;
+        }
+        List<Attribute> attrs = ((Project) plan).getAttributes();
+        if (optimised.getOutput().getAttributes().equals(attrs)) {
+            return optimised;
+        }
+        Operator input = optimised instanceof Project ? ((Project) optimised).getInput() : optimised;
+        Operator project = new Project(input, attrs);
+        estimator.getCost(project);
+        return project;
     }
 
     /**
@@ -46,30 +245,32 @@ public class Optimiser implements PlanVisitor {
     private void pushSelectAndProjectDown(List<Operator> opList, Operator plan,
                                           List<Scan> scanList, List<Predicate> predList) {
         for (Scan scan : scanList) {
-            if (scan.getOutput() == null) {
-                scan.accept(estimator);  // set the output
-            }
+            estimator.getCost(scan);  // set the output
             // get the scanned output attrs
             // push the SELECT down the tree
-            List<Attribute> outputAttrs = scan.getOutput().getAttributes();
+            Relation scanOutput = scan.getOutput();
             Operator tmpOp = scan;
-            for (Predicate pred : predList) {
-                if (pred.equalsValue()) {
-                    if (outputAttrs.contains(pred.getLeftAttribute())) {
-                        tmpOp = new Select(scan, pred);
+            // iterate a copy, predicates are consumed as they are pushed down
+            for (Predicate pred : new ArrayList<>(predList)) {
+                if (pred.comparesValue()) {
+                    if (scanOutput.contains(pred.getLeftAttribute())) {
+                        tmpOp = new Select(tmpOp, pred);
                         predList.remove(pred);
                     }
                 } else {
-                    if (outputAttrs.contains(pred.getLeftAttribute()) && outputAttrs.contains(pred.getRightAttribute())) {
-                        tmpOp = new Select(scan, pred);
+                    if (scanOutput.contains(pred.getLeftAttribute()) && scanOutput.contains(pred.getRightAttribute())) {
+                        tmpOp = new Select(tmpOp, pred);
                         predList.remove(pred);
                     }
                 }
             }
 
             Operator opToAdd = tmpOp;
-            if (opToAdd.getOutput() == null) {
-                opToAdd.accept(estimator);
+            estimator.getCost(opToAdd);
+            // without a final PROJECT every attribute is part of the result
+            if (!(plan instanceof Project)) {
+                opList.add(opToAdd);
+                continue;
             }
             List<Predicate> tmpPredList = new ArrayList<>(predList);
             // get the attrs that should be projected
@@ -83,16 +284,15 @@ public class Optimiser implements PlanVisitor {
                     projectedAttrs.add(rightAttr);
                 }
             }
-            if (plan instanceof Project) {
-                projectedAttrs.addAll(((Project) plan).getAttributes());
-            }
-            boolean hasProjAttr = projectedAttrs.retainAll(opToAdd.getOutput().getAttributes());
-            if (hasProjAttr && projectedAttrs.size() > 0) {
+            projectedAttrs.addAll(((Project) plan).getAttributes());
+            projectedAttrs.retainAll(opToAdd.getOutput().getAttributes());
+            if (projectedAttrs.size() < opToAdd.getOutput().getAttributes().size()) {
+                // a relation with no attribute needed later is projected onto nothing
                 Operator freshProject = new Project(opToAdd, new ArrayList<>(projectedAttrs));
-                freshProject.accept(estimator);
+                estimator.getCost(freshProject);
                 opList.add(freshProject);
-            } else if (projectedAttrs.size() == 0) {
-                // no project, only select
+            } else {
+                // nothing to project away, only select
                 opList.add(opToAdd);
             }
         }
@@ -101,127 +301,366 @@ public class Optimiser implements PlanVisitor {
     /**
      * Look through all possible pred combinations,
      * choose the one which cost least.
+     *
+     * The orderings are searched depth first, a predicate at a time, so the
+     * subtrees built for a prefix are shared by every ordering that begins
+     * with it. The partial cost of a prefix, that of the subtrees built so
+     * far, only grows as operators are added over them, so a prefix whose
+     * partial cost exceeds that of the best complete plan found so far is
+     * abandoned together with all its orderings.
      * @param opList ops generated by pushSelectAndProjectDown()
      * @param plan
      * @param predList
      * @return the optimised plan which costs least
      */
     private Operator reorderSubtrees(List<Operator> opList, Operator plan, List<Predicate> predList) {
-        List<Predicate> tmpPredList = new ArrayList<>(predList);
-        List<List<Predicate>> predCombinations = allPossiblePred(tmpPredList);
-        Operator planOpt = null;
-        int minCost = Integer.MAX_VALUE;
-
-        // find the plan which costs least
-        for (List<Predicate> onePred : predCombinations) {
-            List<Operator> tmpOpList = new ArrayList<>(opList);
-            Operator planTmp = generatePlan(tmpOpList, plan, onePred);
-            int cost = estimator.getSumOfCost(planTmp);
-            if (cost < minCost) {
-                planOpt = planTmp;
-                minCost = cost;
+        if (opList.size() == 1) {
+            // every ordering gives the same plan
+            estimator.getCost(opList.get(0)); // set output relation
+            return opList.get(0);
+        }
+        CandidateSearch search = new CandidateSearch(opList, plan, predList, new ArrayList<>(predList),
+                new int[0], -1, new AtomicLong(Long.MAX_VALUE));
+
+        if (parallelism == 1 || orderings(predList.size()) < PARALLEL_GRAIN) {
+            return search.compute().plan;
+        }
+        if (parallelism == 0) {
+            return ForkJoinPool.commonPool().invoke(search).plan;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(search).plan;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Apply the predicates one at a time, each time choosing the one that
+     * leaves the cheapest partial plan, then join any subtrees left with
+     * PRODUCTs. Used for queries joining too many relations for the join
+     * enumerators, whose sets of relations are bitmasks; it costs O(p^2)
+     * candidates for p predicates. Once the planning budget is spent the
+     * remaining predicates are applied in the order given.
+     * @param opList ops generated by pushSelectAndProjectDown()
+     * @param plan
+     * @param predList
+     * @return the plan
+     */
+    private Operator greedyPlan(List<Operator> opList, Operator plan, List<Predicate> predList) {
+        long deadline = System.nanoTime() + planningBudget * 1000000L;
+        List<Operator> ops = new ArrayList<>(opList);
+        List<Predicate> preds = new ArrayList<>(predList);
+        while (!preds.isEmpty()) {
+            List<Operator> bestOps = null;
+            List<Predicate> bestPreds = null;
+            long bestCost = Long.MAX_VALUE;
+            for (Predicate pred : preds) {
+                if (bestOps != null && System.nanoTime() >= deadline) {
+                    break;
+                }
+                List<Operator> nextOps = new ArrayList<>(ops);
+                List<Predicate> nextPreds = new ArrayList<>(preds);
+                if (metrics != null) {
+                    metrics.planBuilt();
+                }
+                generatePlan(estimator, nextOps, plan, nextPreds, pred, Long.MAX_VALUE);
+                long cost = partialCost(nextOps);
+                if (bestOps == null || cost < bestCost) {
+                    bestOps = nextOps;
+                    bestPreds = nextPreds;
+                    bestCost = cost;
+                }
             }
+            ops = bestOps;
+            preds = bestPreds;
+        }
+        Operator optimised = productOf(estimator, ops, Long.MAX_VALUE);
+        if (metrics != null) {
+            metrics.candidateCosted();
         }
-        return planOpt;
+        return optimised;
     }
 
-    private Operator generatePlan(List<Operator> opList, Operator plan, List<Predicate> predList) {
-        Operator output = null;
-        Operator leftOp = null;
-        Operator rightOp = null;
+    /**
+     * The cheapest of a set of candidate plans.
+     */
+    private static class Candidate {
+        final Operator plan;
+        final long cost;
+        final long index;
 
-        if (opList.size() == 1) {
-            output = opList.get(0);
-            if (output.getOutput() == null) {
-                output.accept(estimator); // set output relation
+        Candidate(Operator plan, long cost, long index) {
+            this.plan = plan;
+            this.cost = cost;
+            this.index = index;
+        }
+
+        /**
+         * Return the better of two candidates, either of which may be null
+         * if every ordering it stands for was pruned.
+         */
+        static Candidate min(Candidate a, Candidate b) {
+            return a == null ? b : a.min(b);
+        }
+
+        /**
+         * Return the better of two candidates: the cheaper, or on equal
+         * cost the one whose ordering comes first (see rank()).
+         */
+        Candidate min(Candidate other) {
+            if (other == null) {
+                return this;
+            }
+            if (cost != other.cost) {
+                return cost < other.cost ? this : other;
             }
-            return output;
+            return index <= other.index ? this : other;
         }
+    }
+
+    /**
+     * Searches the orderings of the predicates that extend a prefix, depth
+     * first. While a subtree of the search holds more than PARALLEL_GRAIN
+     * orderings, its branches are searched as separate tasks. Each task
+     * uses its own Estimator, since an Estimator is not reentrant; the
+     * subtrees it is given were costed before it started and are only read.
+     *
+     * The cost of the cheapest complete plan found by any task is shared,
+     * and bounds the others. Only plans that would cost more than it are
+     * pruned, and plans of equal cost are ranked by their ordering, so the
+     * plan chosen is the one an exhaustive sequential search chooses,
+     * whatever order the tasks run in.
+     */
+    private class CandidateSearch extends RecursiveTask<Candidate> {
+        private static final long serialVersionUID = 1L;
 
-        // iterate the predList and opList
-        while (!predList.isEmpty()) {
-            Predicate pred = predList.get(0);
-            Attribute leftAttr = pred.getLeftAttribute();
-            Attribute rightAttr = pred.getRightAttribute();
+        private final List<Operator> opList;        // subtrees built for the prefix
+        private final Operator plan;
+        private final List<Predicate> predList;     // predicates still to be applied
+        private final List<Predicate> allPreds;
+        private final int[] prefix;                 // indices into allPreds
+        private final int next;                     // predicate to apply first, or -1
+        private final AtomicLong bestCost;
 
-            while (!opList.isEmpty()) {
-                Operator opTmp = opList.get(0);
-                Relation opOutput = opTmp.getOutput();
-                if (opOutput.getAttributes().contains(leftAttr)) {
-                    leftOp = opTmp;
-                    opList.remove(0);
+        CandidateSearch(List<Operator> opList, Operator plan, List<Predicate> predList, List<Predicate> allPreds,
+                        int[] prefix, int next, AtomicLong bestCost) {
+            this.opList = opList;
+            this.plan = plan;
+            this.predList = predList;
+            this.allPreds = allPreds;
+            this.prefix = prefix;
+            this.next = next;
+            this.bestCost = bestCost;
+        }
+
+        @Override
+        protected Candidate compute() {
+            Estimator est = new Estimator();
+            est.setMetrics(metrics);
+            List<Operator> ops = new ArrayList<>(opList);
+            List<Predicate> preds = new ArrayList<>(predList);
+            int[] order = prefix;
+            if (next >= 0) {
+                if (metrics != null) {
+                    metrics.planBuilt();
+                }
+                if (!generatePlan(est, ops, plan, preds, allPreds.get(next), bestCost.get())) {
+                    return null;
                 }
-                if (opOutput.getAttributes().contains(rightAttr)) {
-                    rightOp = opTmp;
-                    opList.remove(0);
+                order = append(prefix, next);
+            }
+            if (parallelism == 1 || orderings(allPreds.size() - order.length) <= PARALLEL_GRAIN) {
+                return search(est, ops, preds, order, null);
+            }
+            List<CandidateSearch> branches = new ArrayList<>();
+            for (int i = 0; i < allPreds.size(); i++) {
+                if (!contains(order, i)) {
+                    branches.add(new CandidateSearch(ops, plan, preds, allPreds, order, i, bestCost));
                 }
             }
+            invokeAll(branches);
+            Candidate best = null;
+            for (CandidateSearch branch : branches) {
+                best = Candidate.min(best, branch.join());
+            }
+            return best;
+        }
 
-            // generate SELECT if get a UnaryOperator
-            if (leftOp != null && rightOp == null) {
-                output = new Select(leftOp, pred);
-                predList.remove(pred);
+        /**
+         * @return the best plan of best and those for the orderings that
+         * extend order, or null if there is none
+         */
+        private Candidate search(Estimator est, List<Operator> ops, List<Predicate> preds, int[] order,
+                                 Candidate best) {
+            if (order.length == allPreds.size()) {
+                Operator planTmp = productOf(est, ops, bestCost.get());
+                if (planTmp == null) {
+                    return best;
+                }
+                long cost = est.getCost(planTmp);
+                if (metrics != null) {
+                    metrics.candidateCosted();
+                    metrics.offerCost(cost);
+                }
+                long shared = bestCost.get();
+                while (cost < shared && !bestCost.compareAndSet(shared, cost)) {
+                    shared = bestCost.get();
+                }
+                return new Candidate(planTmp, cost, rank(order)).min(best);
             }
-            if (leftOp == null && rightOp != null) {
-                output = new Select(rightOp, pred);
-                predList.remove(pred);
+            for (int i = 0; i < allPreds.size(); i++) {
+                if (contains(order, i)) {
+                    continue;
+                }
+                List<Operator> nextOps = new ArrayList<>(ops);
+                List<Predicate> nextPreds = new ArrayList<>(preds);
+                if (metrics != null) {
+                    metrics.planBuilt();
+                }
+                if (generatePlan(est, nextOps, plan, nextPreds, allPreds.get(i), bestCost.get())) {
+                    best = search(est, nextOps, nextPreds, append(order, i), best);
+                }
             }
+            return best;
+        }
+    }
+
+    /**
+     * Extend a partial plan by applying one more predicate, as a SELECT or
+     * a JOIN of the subtrees producing its attributes, costing the new
+     * operators as they are built. A predicate that has been applied or is
+     * already enforced leaves the plan as it is.
+     * @param estimator
+     * @param opList subtrees built so far, all costed; updated in place
+     * @param plan
+     * @param predList predicates still to be applied; updated in place
+     * @param pred the predicate to apply
+     * @param limit the most the plan may cost
+     * @return false if the partial cost of the plan now exceeds limit
+     */
+    private boolean generatePlan(Estimator estimator, List<Operator> opList, Operator plan, List<Predicate> predList,
+                                 Predicate pred, long limit) {
+        Operator output = null;
+        Operator leftOp = null;
+        Operator rightOp = null;
+
+        if (!predList.contains(pred)) {
+            return true;
+        }
+        Attribute leftAttr = pred.getLeftAttribute();
+        Attribute rightAttr = pred.getRightAttribute();
 
-            // generate JOIN if get a BinaryOperator
-            if (leftOp != null && rightOp != null) {
-                output = new Join(leftOp, rightOp, pred);
+        // find the subtrees which produce the predicate's attributes
+        for (Operator opTmp : opList) {
+            Relation opOutput = opTmp.getOutput();
+            if (leftOp == null && opOutput.contains(leftAttr)) {
+                leftOp = opTmp;
+            }
+            if (rightAttr != null && rightOp == null && opOutput.contains(rightAttr)) {
+                rightOp = opTmp;
+            }
+        }
+        if (leftOp == rightOp) {
+            // both attributes come from the same subtree
+            rightOp = null;
+            if (EquivalenceClasses.implied(leftOp, pred)) {
+                // already enforced by the joins that built the subtree
                 predList.remove(pred);
+                return true;
             }
+        }
+        if (leftOp == null && rightOp == null) {
+            // predicate does not apply to any subtree
+            predList.remove(pred);
+            return true;
+        }
+        opList.remove(leftOp);
+        opList.remove(rightOp);
 
-            assert output != null;
-            // set output
-            if (output.getOutput() == null) {
-                output.accept(estimator);
-            }
+        // generate SELECT if get a UnaryOperator
+        if (leftOp != null && rightOp == null) {
+            output = new Select(leftOp, pred);
+            predList.remove(pred);
+        }
+        if (leftOp == null && rightOp != null) {
+            output = new Select(rightOp, pred);
+            predList.remove(pred);
+        }
 
-            // get attrs that should be projected at last
-            // Use Set because addAll() may cause Attribute to be duplicate
-            Set<Attribute> attrParams = new HashSet<>();
-            for (Predicate tmpPred : predList) {
-                Attribute tmpLeftAttr = tmpPred.getLeftAttribute();
-                Attribute tmpRightAttr = tmpPred.getRightAttribute();
-                attrParams.add(tmpLeftAttr);
-                if (tmpRightAttr != null) {
-                    attrParams.add(tmpRightAttr);
-                }
+        // generate JOIN if get a BinaryOperator
+        if (leftOp != null && rightOp != null) {
+            output = new Join(leftOp, rightOp, pred);
+            predList.remove(pred);
+        }
+
+        assert output != null;
+        // set output
+        estimator.getCost(output);
+        // drop predicates the new subtree already enforces
+        Relation joined = output.getOutput();
+        for (Predicate tmpPred : new ArrayList<>(predList)) {
+            if (!tmpPred.comparesValue() && joined.contains(tmpPred.getLeftAttribute())
+                    && joined.contains(tmpPred.getRightAttribute())
+                    && EquivalenceClasses.implied(output, tmpPred)) {
+                predList.remove(tmpPred);
             }
-            if (plan instanceof Project) {
-                attrParams.addAll(((Project) plan).getAttributes());
+        }
+
+        // get attrs that should be projected at last
+        // Use Set because addAll() may cause Attribute to be duplicate
+        Set<Attribute> attrParams = new HashSet<>();
+        for (Predicate tmpPred : predList) {
+            Attribute tmpLeftAttr = tmpPred.getLeftAttribute();
+            Attribute tmpRightAttr = tmpPred.getRightAttribute();
+            attrParams.add(tmpLeftAttr);
+            if (tmpRightAttr != null) {
+                attrParams.add(tmpRightAttr);
             }
+        }
+        if (plan instanceof Project) {
+            attrParams.addAll(((Project) plan).getAttributes());
+        }
 
-            List<Attribute> outputAttrs = output.getOutput().getAttributes();
-            if (outputAttrs.containsAll(attrParams) && outputAttrs.size() == attrParams.size()) {
-                opList.add(output);
-            } else {
-                List<Attribute> attrNeedProject = new ArrayList<>();
-                for (Attribute outputAttr : outputAttrs) {
-                    if (attrParams.contains(outputAttr)) {
-                        attrNeedProject.add(outputAttr);
-                    }
-                }
-                // no attr to project
-                if (attrNeedProject.isEmpty()) {
-                    opList.add(output);
-                } else {  // need project
-                    Project freshProject = new Project(output, attrNeedProject);
-                    freshProject.accept(estimator);
-                    opList.add(freshProject);
+        List<Attribute> outputAttrs = output.getOutput().getAttributes();
+        if (!(plan instanceof Project)
+                || (outputAttrs.size() == attrParams.size() && containsAll(output.getOutput(), attrParams))) {
+            opList.add(output);
+        } else {
+            List<Attribute> attrNeedProject = new ArrayList<>();
+            for (Attribute outputAttr : outputAttrs) {
+                if (attrParams.contains(outputAttr)) {
+                    attrNeedProject.add(outputAttr);
                 }
             }
+            // need project, onto nothing if no attr is needed later
+            Project freshProject = new Project(output, attrNeedProject);
+            estimator.getCost(freshProject);
+            opList.add(freshProject);
         }
+        return partialCost(opList) <= limit;
+    }
 
+    /**
+     * Complete a plan once every predicate has been applied, with a
+     * PRODUCT of any subtrees left.
+     * @param estimator
+     * @param opList subtrees built, all costed
+     * @param limit the most the plan may cost
+     * @return the plan, or null if it would cost more than limit
+     */
+    private static Operator productOf(Estimator estimator, List<Operator> opList, long limit) {
         // if opList.size() >= 2, then perform a product
         while (opList.size() >= 2) {
             Product freshProduct = new Product(opList.get(0), opList.get(1));
-            freshProduct.accept(estimator);
+            estimator.getCost(freshProduct);
+            opList.remove(0);
             opList.remove(0);
-            opList.remove(1);
             opList.add(freshProduct);
+            if (partialCost(opList) > limit) {
+                return null;
+            }
         }
 
         // return the optimised plan
@@ -229,38 +668,96 @@ public class Optimiser implements PlanVisitor {
     }
 
     /**
-     *
-     * @param predList
-     * @return all possible predicate combinations
+     * @return the total cost of the costed subtrees in opList
+     */
+    private static long partialCost(List<Operator> opList) {
+        long cost = 0;
+        for (Operator op : opList) {
+            cost = Estimator.saturatedAdd(cost, op.getCost());
+        }
+        return cost;
+    }
+
+    /**
+     * @return whether the relation has every one of the attributes
+     */
+    private static boolean containsAll(Relation relation, Collection<Attribute> attrs) {
+        for (Attribute attr : attrs) {
+            if (!relation.contains(attr)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the position of an ordering of predicates p0..pn-1 among all
+     * their orderings, listed as each ordering of p1..pn-1 in turn with p0
+     * inserted at every position, which is the order in which candidates
+     * were once generated and compared. Orderings of more than 20
+     * predicates, which could never be searched, are not numbered exactly.
+     * @param order indices of the predicates, in the order applied
+     * @return
+     */
+    private static long rank(int[] order) {
+        long rank = 0;
+        for (int k = order.length - 1; k >= 0; k--) {
+            // position of pk among pk..pn-1
+            int position = 0;
+            for (int i = 0; order[i] != k; i++) {
+                if (order[i] > k) {
+                    position++;
+                }
+            }
+            rank = rank * (order.length - k) + position;
+        }
+        return rank;
+    }
+
+    /**
+     * @return the number of orderings of n predicates, or Long.MAX_VALUE
+     * if that is too many to count
      */
-    private List<List<Predicate>> allPossiblePred(List<Predicate> predList) {
-        // recursion boundary
-        if (predList.isEmpty()) {
-            List<List<Predicate>> addOne = new ArrayList<>();
-            addOne.add(new ArrayList<>());
-            return addOne;
-        }
-        // !predList.isEmpty()
-        Predicate removeFirst = predList.remove(0);
-        List<List<Predicate>> res = new ArrayList<>();
-        List<List<Predicate>> combinations = allPossiblePred(predList);
-        for (List<Predicate> lackOne : combinations) {
-            for (int i = 0; i <= lackOne.size(); i++) {
-                List<Predicate> tmp = new ArrayList<>(lackOne);
-                tmp.add(i, removeFirst);
-                res.add(tmp);
+    private static long orderings(int n) {
+        long ret = 1;
+        for (int i = 2; i <= n; i++) {
+            if (ret > Long.MAX_VALUE / i) {
+                return Long.MAX_VALUE;
             }
+            ret *= i;
         }
-        return res;
+        return ret;
+    }
+
+    private static boolean contains(int[] order, int index) {
+        for (int i : order) {
+            if (i == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] append(int[] order, int index) {
+        int[] ret = Arrays.copyOf(order, order.length + 1);
+        ret[order.length] = index;
+        return ret;
     }
 
     /**
      * Create new SCAN operators and collect all new scans to list.
+     * The relation is looked up by name in the pinned snapshot, so that
+     * the whole plan is costed against one version of the statistics.
      * @param op Scan operator to be visited
      */
     @Override
     public void visit(Scan op) {
         NamedRelation scannedRelation = (NamedRelation) op.getRelation();
+        try {
+            scannedRelation = snapshot.getRelation(scannedRelation.getName());
+        } catch (DatabaseException e) {
+            // not in the catalogue; keep the relation given
+        }
         Scan freshScan = new Scan(scannedRelation);
         scanList.add(freshScan);
     }
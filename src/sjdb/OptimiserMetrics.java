@@ -0,0 +1,146 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records where the time and effort of one Optimiser.optimise() call go.
+ *
+ * Metrics are collected only when an instance is given to
+ * Optimiser.setMetrics(); otherwise the optimiser and estimator skip the
+ * recording with a single null check. The counters may be updated from
+ * several threads during a parallel search.
+ *
+ * - pushdown and join-ordering times, and the total, in nanoseconds
+ * - plans built by the join search, partial or complete: an ordering
+ *   prefix extended by the permutation search, two subplans combined by
+ *   dynamic programming or the randomised search, a memo expression built
+ *   into a plan; and candidates costed
+ * - estimator visits: operators whose output was estimated, including
+ *   re-estimates; and operators estimated for the first time, which is
+ *   every operator built by a strategy that costs what it builds
+ * - the best cost so far, each time it improves, against the time since
+ *   optimise() began
+ */
+public class OptimiserMetrics {
+
+    private String strategy;
+    private long startNanos;
+    private long pushdownNanos;
+    private long joinOrderingNanos;
+    private long totalNanos;
+    private final AtomicLong plansBuilt = new AtomicLong();
+    private final AtomicLong candidatesCosted = new AtomicLong();
+    private final AtomicLong estimatorVisits = new AtomicLong();
+    private final AtomicLong operatorsEstimated = new AtomicLong();
+    private long bestCost = Long.MAX_VALUE;
+    private final List<long[]> bestCostTrace = new ArrayList<>();
+
+    void start(Optimiser.Strategy strategy) {
+        this.strategy = strategy.toString();
+        this.startNanos = System.nanoTime();
+    }
+
+    void pushdownDone() {
+        pushdownNanos = System.nanoTime() - startNanos;
+    }
+
+    void joinOrderingDone() {
+        totalNanos = System.nanoTime() - startNanos;
+        joinOrderingNanos = totalNanos - pushdownNanos;
+    }
+
+    void planBuilt() {
+        plansBuilt.incrementAndGet();
+    }
+
+    void candidateCosted() {
+        candidatesCosted.incrementAndGet();
+    }
+
+    void estimatorVisit() {
+        estimatorVisits.incrementAndGet();
+    }
+
+    void operatorEstimated() {
+        operatorsEstimated.incrementAndGet();
+    }
+
+    /**
+     * Note the cost of a complete candidate plan, recording it if it is
+     * the cheapest so far.
+     * @param cost
+     */
+    synchronized void offerCost(long cost) {
+        if (cost < bestCost) {
+            bestCost = cost;
+            bestCostTrace.add(new long[] { System.nanoTime() - startNanos, cost });
+        }
+    }
+
+    public long getPushdownNanos() {
+        return pushdownNanos;
+    }
+
+    public long getJoinOrderingNanos() {
+        return joinOrderingNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getPlansBuilt() {
+        return plansBuilt.get();
+    }
+
+    public long getCandidatesCosted() {
+        return candidatesCosted.get();
+    }
+
+    public long getEstimatorVisits() {
+        return estimatorVisits.get();
+    }
+
+    public long getOperatorsEstimated() {
+        return operatorsEstimated.get();
+    }
+
+    /**
+     * @return the cheapest complete plan cost seen, or Long.MAX_VALUE
+     */
+    public synchronized long getBestCost() {
+        return bestCost;
+    }
+
+    /**
+     * @return pairs of (nanoseconds since optimise() began, best cost so far)
+     */
+    public synchronized List<long[]> getBestCostTrace() {
+        return new ArrayList<>(bestCostTrace);
+    }
+
+    /**
+     * @return the metrics as a single-line JSON object
+     */
+    public synchronized String toJson() {
+        StringBuilder ret = new StringBuilder();
+        ret.append("{\"strategy\":\"").append(strategy).append("\"");
+        ret.append(",\"pushdownNanos\":").append(pushdownNanos);
+        ret.append(",\"joinOrderingNanos\":").append(joinOrderingNanos);
+        ret.append(",\"totalNanos\":").append(totalNanos);
+        ret.append(",\"plansBuilt\":").append(plansBuilt.get());
+        ret.append(",\"candidatesCosted\":").append(candidatesCosted.get());
+        ret.append(",\"estimatorVisits\":").append(estimatorVisits.get());
+        ret.append(",\"operatorsEstimated\":").append(operatorsEstimated.get());
+        ret.append(",\"bestCost\":").append(bestCost == Long.MAX_VALUE ? "null" : String.valueOf(bestCost));
+        ret.append(",\"bestCostTrace\":[");
+        for (int i = 0; i < bestCostTrace.size(); i++) {
+            long[] point = bestCostTrace.get(i);
+            ret.append(i > 0 ? "," : "").append("[").append(point[0]).append(",").append(point[1]).append("]");
+        }
+        ret.append("]}");
+        return ret.toString();
+    }
+}
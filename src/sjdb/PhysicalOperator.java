@@ -0,0 +1,62 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This abstract class represents an operator in an executable query plan.
+ * Physical operators are pull-based: each call to next() returns the next
+ * batch of output tuples, with one column per attribute in the order given
+ * by getAttributes().
+ */
+public abstract class PhysicalOperator {
+	/**
+	 * The attributes of the tuples produced by this operator.
+	 */
+	protected List<Attribute> attributes;
+
+	public PhysicalOperator(List<Attribute> attributes) {
+		this.attributes = new ArrayList<Attribute>(attributes);
+	}
+
+	/**
+	 * @return the attributes of the tuples produced by this operator
+	 */
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Return the next batch of output tuples. Batches are never empty.
+	 * @return the next batch, or null if there are no more tuples
+	 */
+	public abstract Batch next();
+
+	/**
+	 * Return the position of an attribute among the given attributes.
+	 * @param attributes
+	 * @param attribute
+	 * @return column index
+	 */
+	protected static int columnOf(List<Attribute> attributes, Attribute attribute) {
+		int i = attributes.indexOf(attribute);
+		if (i < 0) {
+			throw new IllegalArgumentException("Attribute " + attribute + " not found in " + attributes);
+		}
+		return i;
+	}
+
+	/**
+	 * Read every tuple produced by an operator into a table.
+	 * @param op
+	 * @return the table
+	 */
+	protected static Table materialise(PhysicalOperator op) {
+		Table table = new Table(op.getAttributes());
+		Batch batch;
+		while ((batch = op.next()) != null) {
+			table.append(batch);
+		}
+		return table;
+	}
+}
@@ -0,0 +1,163 @@
+package sjdb;
+
+/**
+ * This class chooses a physical algorithm for every Join and Product in
+ * an optimised plan. Unlike the Estimator, which only counts tuples, it
+ * costs each algorithm in page I/Os plus a weighted number of tuple
+ * operations, with page counts derived from the estimated tuple counts:
+ * 
+ * B(R) = ceil(T(R) * (number of attributes of R) * attribute width / page size)
+ * 
+ * and M pages of memory available to each operator. The output of a join
+ * is the same whichever algorithm is used, so its cost is not included.
+ * 
+ * - nested loop: B(S) + ceil(B(S) / (M - 2)) * B(L) I/Os for outer S and
+ *   inner L (the smaller input is the outer), and T(S)T(L) comparisons
+ * - hash: B(R) + B(S) I/Os if the smaller input fits in memory, otherwise
+ *   3(B(R) + B(S)) for grace partitioning; T(R) + T(S) operations
+ * - sort-merge: an external sort of each input that does not fit in
+ *   memory (2B I/Os per pass), then B(R) + B(S) I/Os to merge;
+ *   T log2 T operations per sort plus T(R) + T(S) to merge
+ */
+public class PhysicalPlanner implements PlanVisitor {
+	public static final int DEFAULT_ATTRIBUTE_WIDTH = 8;
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+	// the memory the Executor gives a hash join, so that plans are costed as they run
+	public static final long DEFAULT_MEMORY_PAGES = Executor.DEFAULT_MEMORY_BUDGET / DEFAULT_PAGE_SIZE;
+	public static final double DEFAULT_CPU_WEIGHT = 0.001;
+
+	private int attributeWidth;
+	private int pageSize;
+	private long memoryPages;
+	private double cpuWeight;
+	private double sumOfCost;
+
+	public PhysicalPlanner() {
+		this.attributeWidth = DEFAULT_ATTRIBUTE_WIDTH;
+		this.pageSize = DEFAULT_PAGE_SIZE;
+		this.memoryPages = DEFAULT_MEMORY_PAGES;
+		this.cpuWeight = DEFAULT_CPU_WEIGHT;
+	}
+
+	/**
+	 * Set the width of an attribute value in bytes; the width of a tuple
+	 * is this times its number of attributes.
+	 * @param bytes
+	 */
+	public void setAttributeWidth(int bytes) {
+		this.attributeWidth = bytes;
+	}
+
+	/**
+	 * @param bytes size of a disk page
+	 */
+	public void setPageSize(int bytes) {
+		this.pageSize = bytes;
+	}
+
+	/**
+	 * @param pages memory available to each join, in pages
+	 */
+	public void setMemoryPages(long pages) {
+		this.memoryPages = pages;
+	}
+
+	/**
+	 * @param weight cost of one tuple operation relative to a page I/O
+	 */
+	public void setCpuWeight(double weight) {
+		this.cpuWeight = weight;
+	}
+
+	/**
+	 * Choose the algorithm for every Join and Product in the plan.
+	 * @param plan
+	 * @return the total estimated cost of the chosen algorithms
+	 */
+	public double plan(Operator plan) {
+		// make sure every operator has an estimated output relation
+		new Estimator().getCost(plan);
+		sumOfCost = 0;
+		plan.accept(this);
+		return sumOfCost;
+	}
+
+	/**
+	 * @param reln
+	 * @return the number of pages occupied by the relation
+	 */
+	public double pages(Relation reln) {
+		double bytes = (double) reln.getTupleCount() * reln.getAttributes().size() * attributeWidth;
+		return Math.max(1, Math.ceil(bytes / pageSize));
+	}
+
+	double nestedLoopCost(Relation left, Relation right) {
+		double outer = Math.min(pages(left), pages(right));
+		double inner = Math.max(pages(left), pages(right));
+		double io = outer + Math.ceil(outer / Math.max(1, memoryPages - 2)) * inner;
+		return io + cpuWeight * (double) left.getTupleCount() * right.getTupleCount();
+	}
+
+	double hashCost(Relation left, Relation right) {
+		double pages = pages(left) + pages(right);
+		double io = Math.min(pages(left), pages(right)) <= memoryPages - 2 ? pages : 3 * pages;
+		return io + cpuWeight * ((double) left.getTupleCount() + right.getTupleCount());
+	}
+
+	double sortMergeCost(Relation left, Relation right) {
+		double io = sortCost(pages(left)) + sortCost(pages(right)) + pages(left) + pages(right);
+		return io + cpuWeight * (sortOperations(left) + sortOperations(right)
+				+ left.getTupleCount() + right.getTupleCount());
+	}
+
+	private double sortCost(double pages) {
+		if (pages <= memoryPages) {
+			return 0;
+		}
+		// initial runs of M pages, merged M-1 at a time, each pass reading and writing everything
+		double runs = Math.ceil(pages / memoryPages);
+		double passes = 1 + Math.ceil(Math.log(runs) / Math.log(Math.max(2, memoryPages - 1)));
+		return 2 * pages * passes;
+	}
+
+	private static double sortOperations(Relation reln) {
+		double tuples = Math.max(2, reln.getTupleCount());
+		return tuples * Math.log(tuples) / Math.log(2);
+	}
+
+	public void visit(Scan op) {
+		// no choice to make
+	}
+
+	public void visit(Project op) {
+		// no choice to make
+	}
+
+	public void visit(Select op) {
+		// no choice to make
+	}
+
+	public void visit(Product op) {
+		double cost = nestedLoopCost(op.getLeft().getOutput(), op.getRight().getOutput());
+		op.setAlgorithm(JoinAlgorithm.NESTED_LOOP, cost);
+		sumOfCost += cost;
+	}
+
+	public void visit(Join op) {
+		Relation left = op.getLeft().getOutput();
+		Relation right = op.getRight().getOutput();
+
+		JoinAlgorithm algorithm = JoinAlgorithm.HASH;
+		double cost = hashCost(left, right);
+		if (sortMergeCost(left, right) < cost) {
+			algorithm = JoinAlgorithm.SORT_MERGE;
+			cost = sortMergeCost(left, right);
+		}
+		if (nestedLoopCost(left, right) < cost) {
+			algorithm = JoinAlgorithm.NESTED_LOOP;
+			cost = nestedLoopCost(left, right);
+		}
+		op.setAlgorithm(algorithm, cost);
+		sumOfCost += cost;
+	}
+}
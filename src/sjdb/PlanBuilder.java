@@ -0,0 +1,254 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds candidate subplans for the join enumerators.
+ *
+ * The builder is given the subplans produced by
+ * Optimiser.pushSelectAndProjectDown() (one per relation, numbered by their
+ * position in the list) and the join predicates that are still to be applied.
+ * Sets of relations are represented as bitmasks over those positions.
+ *
+ * The join predicates are grouped into equivalence classes of attributes,
+ * and any two relations with attributes in the same class can be joined
+ * directly, whether or not the query equates those two attributes: the
+ * predicate is made up from the attributes when the join is built.
+ * A relation with more than one attribute in a class stands for the class
+ * with the first of them, and its base subplan selects the others equal to
+ * that one, so that no equality of the class is lost.
+ */
+class PlanBuilder {
+
+    private final List<Operator> baseOps;
+    private final long[] classRels;             // relations with an attribute in each class
+    private final Attribute[][] classAttrs;     // each relation's first attribute in each class
+    private final Map<Attribute, Map<Attribute, Predicate>> written;  // predicates as the query gives them
+    private final Set<Attribute> finalAttrs;    // null if the query has no final PROJECT
+
+    PlanBuilder(List<Operator> baseOps, List<Predicate> joinPreds, Operator plan) {
+        this.baseOps = new ArrayList<>(baseOps);
+        this.finalAttrs = plan instanceof Project
+                ? new LinkedHashSet<>(((Project) plan).getAttributes()) : null;
+
+        Map<Attribute, Integer> owner = new HashMap<>();
+        for (int i = 0; i < this.baseOps.size(); i++) {
+            for (Attribute attr : this.baseOps.get(i).getOutput().getAttributes()) {
+                owner.put(attr, i);
+            }
+        }
+
+        // number the classes of the attr=attr predicates linking two relations
+        Map<Attribute, Integer> classOf = new HashMap<>();
+        List<List<Attribute>> members = new ArrayList<>();
+        written = new HashMap<>();
+        for (Predicate pred : joinPreds) {
+            Attribute left = pred.getLeftAttribute();
+            Attribute right = pred.getRightAttribute();
+            if (pred.comparesValue() || ownerOf(owner, left) < 0 || ownerOf(owner, right) < 0) {
+                continue;
+            }
+            if (!written.containsKey(left)) {
+                written.put(left, new HashMap<Attribute, Predicate>());
+            }
+            written.get(left).put(right, pred);
+            Integer leftClass = classOf.get(left);
+            Integer rightClass = classOf.get(right);
+            if (leftClass == null && rightClass == null) {
+                classOf.put(left, members.size());
+                classOf.put(right, members.size());
+                members.add(new ArrayList<>(Arrays.asList(left, right)));
+            } else if (leftClass == null) {
+                classOf.put(left, rightClass);
+                members.get(rightClass).add(left);
+            } else if (rightClass == null) {
+                classOf.put(right, leftClass);
+                members.get(leftClass).add(right);
+            } else if (!leftClass.equals(rightClass)) {
+                for (Attribute attr : members.get(rightClass)) {
+                    classOf.put(attr, leftClass);
+                }
+                members.get(leftClass).addAll(members.get(rightClass));
+                members.get(rightClass).clear();
+            }
+        }
+        int count = 0;
+        for (List<Attribute> cls : members) {
+            if (!cls.isEmpty()) {
+                count++;
+            }
+        }
+        classRels = new long[count];
+        classAttrs = new Attribute[count][];
+        int c = 0;
+        for (List<Attribute> cls : members) {
+            if (cls.isEmpty()) {
+                continue;
+            }
+            classAttrs[c] = new Attribute[this.baseOps.size()];
+            for (Attribute attr : cls) {
+                int i = owner.get(attr);
+                if (classAttrs[c][i] == null) {
+                    classAttrs[c][i] = attr;
+                    classRels[c] |= bit(i);
+                } else {
+                    // equate a further attribute of the same relation within its base subplan
+                    this.baseOps.set(i, new Select(this.baseOps.get(i), sameRelation(classAttrs[c][i], attr)));
+                }
+            }
+            c++;
+        }
+    }
+
+    private static int ownerOf(Map<Attribute, Integer> owner, Attribute attr) {
+        Integer index = attr == null ? null : owner.get(attr);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return the number of relations to be joined
+     */
+    int size() {
+        return baseOps.size();
+    }
+
+    /**
+     * @param i
+     * @return the subplan for the i-th relation
+     */
+    Operator getBase(int i) {
+        return baseOps.get(i);
+    }
+
+    /**
+     * @param i
+     * @return the bitmask containing only the i-th relation
+     */
+    static long bit(int i) {
+        return 1L << i;
+    }
+
+    /**
+     * @return the join graph over the relations, with an edge between each
+     * two relations that share a class
+     */
+    JoinGraph joinGraph() {
+        JoinGraph graph = new JoinGraph(baseOps.size());
+        for (long rels : classRels) {
+            for (long rest = rels; rest != 0; rest &= rest - 1) {
+                int i = Long.numberOfTrailingZeros(rest);
+                for (long others = rest & (rest - 1); others != 0; others &= others - 1) {
+                    graph.addEdge(i, Long.numberOfTrailingZeros(others));
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * @param left
+     * @param right
+     * @return true if the two disjoint sets share a class
+     */
+    boolean connected(long left, long right) {
+        for (long rels : classRels) {
+            if ((rels & left) != 0 && (rels & right) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param c
+     * @param set
+     * @return the attribute standing for class c in the subplan for set:
+     * that of its first relation in the class
+     */
+    private Attribute attributeOf(int c, long set) {
+        return classAttrs[c][Long.numberOfTrailingZeros(classRels[c] & set)];
+    }
+
+    /**
+     * Combine the subplans for two disjoint sets of relations. The two sets
+     * are equated once on each class they share: the first class becomes a
+     * JOIN and any further ones are applied as SELECTs on top of it; with no
+     * shared class a PRODUCT is used. Attributes that are neither in the
+     * final projection nor needed by a later join are projected away.
+     * @param left subplan for leftSet
+     * @param leftSet
+     * @param right subplan for rightSet
+     * @param rightSet
+     * @return the combined subplan
+     */
+    Operator combine(Operator left, long leftSet, Operator right, long rightSet) {
+        Operator output = null;
+        for (int c = 0; c < classRels.length; c++) {
+            if ((classRels[c] & leftSet) == 0 || (classRels[c] & rightSet) == 0) {
+                continue;
+            }
+            // JOIN expects the left attribute to come from its left input
+            Predicate pred = predicate(attributeOf(c, leftSet), attributeOf(c, rightSet));
+            if (output == null) {
+                output = new Join(left, right, pred);
+            } else {
+                output = new Select(output, pred);
+            }
+        }
+        if (output == null) {
+            output = new Product(left, right);
+        }
+
+        List<Attribute> outputAttrs = new ArrayList<>(left.getOutput().getAttributes());
+        outputAttrs.addAll(right.getOutput().getAttributes());
+        return project(output, outputAttrs, leftSet | rightSet);
+    }
+
+    /**
+     * @return the query's predicate equating left and right if it has one
+     * that way round, or a new one
+     */
+    private Predicate predicate(Attribute left, Attribute right) {
+        Map<Attribute, Predicate> byRight = written.get(left);
+        Predicate pred = byRight == null ? null : byRight.get(right);
+        return pred != null ? pred : new Predicate(left, right);
+    }
+
+    /**
+     * @return the query's predicate equating the two attributes of one
+     * relation, whichever way round, or a new one
+     */
+    private Predicate sameRelation(Attribute first, Attribute attr) {
+        Map<Attribute, Predicate> byRight = written.get(attr);
+        Predicate pred = byRight == null ? null : byRight.get(first);
+        return pred != null ? pred : predicate(first, attr);
+    }
+
+    private Operator project(Operator op, List<Attribute> outputAttrs, long set) {
+        if (finalAttrs == null) {
+            return op;
+        }
+        Set<Attribute> required = new LinkedHashSet<>(finalAttrs);
+        for (int c = 0; c < classRels.length; c++) {
+            if ((classRels[c] & set) != 0 && (classRels[c] & ~set) != 0) {
+                required.add(attributeOf(c, set));
+            }
+        }
+        List<Attribute> attrs = new ArrayList<>();
+        for (Attribute attr : outputAttrs) {
+            if (required.contains(attr)) {
+                attrs.add(attr);
+            }
+        }
+        if (attrs.isEmpty() || attrs.size() == outputAttrs.size()) {
+            return op;
+        }
+        return new Project(op, attrs);
+    }
+}
@@ -0,0 +1,287 @@
+package sjdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class caches optimised plans in front of Optimiser.optimise(),
+ * keyed by the shape of the canonical query: its projected attributes,
+ * its relations and its predicates with their literal values replaced
+ * by "?". Queries that differ only in their literals share a cache entry;
+ * on a hit the cached plan is copied with the new query's predicates
+ * substituted for those of the query it was optimised for.
+ * 
+ * The cache holds at most a fixed number of entries, evicting the least
+ * recently used. An entry is discarded if the Catalogue version has
+ * changed since it was created. The cache is safe for use by several
+ * threads: every plan it returns is a fresh copy, so the caller may
+ * annotate it (with costs or join algorithms) without affecting the
+ * cached plan or the plans given to other threads.
+ */
+public class PlanCache {
+	/**
+	 * Default number of entries held by the cache.
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final Catalogue catalogue;
+	private final LinkedHashMap<String, CachedPlan> entries;
+	private long hits;
+	private long misses;
+
+	public PlanCache(Catalogue catalogue) {
+		this(catalogue, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param catalogue catalogue whose version is checked on every lookup
+	 * @param capacity maximum number of cached plans
+	 */
+	public PlanCache(Catalogue catalogue, final int capacity) {
+		this.catalogue = catalogue;
+		this.entries = new LinkedHashMap<String, CachedPlan>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, CachedPlan> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * A cached plan and the catalogue version it was optimised against.
+	 */
+	private static class CachedPlan {
+		final Operator plan;
+		final long version;
+
+		CachedPlan(Operator plan, long version) {
+			this.plan = plan;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * Return an optimised plan for a canonical query, using the given
+	 * optimiser only if there is no usable cached plan.
+	 * @param plan canonical plan, as built by QueryParser
+	 * @param optimiser fresh optimiser to use on a cache miss
+	 * @return optimised plan
+	 */
+	public Operator optimise(Operator plan, Optimiser optimiser) {
+		Shape shape = new Shape();
+		plan.accept(shape);
+		String key = shape.getKey();
+		// the version checked is the one the plan is optimised against on a miss
+		CatalogueSnapshot snapshot = catalogue.snapshot();
+
+		synchronized (this) {
+			CachedPlan entry = entries.get(key);
+			if (entry != null && entry.version == snapshot.getVersion()) {
+				Operator bound = bind(entry.plan, shape.getPredicates());
+				if (bound != null) {
+					hits++;
+					return bound;
+				}
+			}
+			misses++;
+		}
+
+		Operator optimised = optimiser.optimise(plan, snapshot);
+		Operator bound = bind(optimised, shape.getPredicates());
+		if (bound == null) {
+			// not reusable, so not worth keeping
+			return optimised;
+		}
+		synchronized (this) {
+			entries.put(key, new CachedPlan(optimised, snapshot.getVersion()));
+		}
+		return bound;
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups that needed the optimiser
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of cached plans
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Discard every cached plan.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Return the shape of a predicate: the predicate with its values
+	 * replaced by "?", or with its attributes in name order if it
+	 * compares two attributes.
+	 * @param pred
+	 * @return
+	 */
+	static String shapeOf(Predicate pred) {
+		String attr = pred.getLeftAttribute().getName();
+		if (!pred.comparesValue()) {
+			String other = pred.getRightAttribute().getName();
+			return attr.compareTo(other) < 0 ? attr + "=" + other : other + "=" + attr;
+		}
+		switch (pred.getComparison()) {
+		case BETWEEN:
+			return attr + " BETWEEN ? AND ?";
+		case IN:
+			return attr + " IN (" + pred.getValues().size() + ")";
+		default:
+			return attr + pred.getComparison() + "?";
+		}
+	}
+
+	/**
+	 * Copy a cached plan, replacing each of its predicates that compares
+	 * with values by a query predicate of the same shape.
+	 * @return the copy, or null if some predicate has no counterpart
+	 */
+	private static Operator bind(Operator template, List<Predicate> preds) {
+		HashMap<String, Deque<Predicate>> byShape = new HashMap<String, Deque<Predicate>>();
+		for (Predicate pred : preds) {
+			if (pred.comparesValue()) {
+				String shape = shapeOf(pred);
+				if (!byShape.containsKey(shape)) {
+					byShape.put(shape, new ArrayDeque<Predicate>());
+				}
+				byShape.get(shape).add(pred);
+			}
+		}
+		Binder binder = new Binder(byShape);
+		template.accept(binder);
+		return binder.getResult();
+	}
+
+	/**
+	 * Visitor collecting the key of a canonical query and its predicates.
+	 */
+	private static class Shape implements PlanVisitor {
+		private List<String> relations = new ArrayList<String>();
+		private List<String> predicates = new ArrayList<String>();
+		private List<Predicate> preds = new ArrayList<Predicate>();
+		private String projection = "*";
+
+		String getKey() {
+			List<String> sortedRelations = new ArrayList<String>(relations);
+			List<String> sortedPredicates = new ArrayList<String>(predicates);
+			Collections.sort(sortedRelations);
+			Collections.sort(sortedPredicates);
+			return "SELECT " + projection + " FROM " + sortedRelations + " WHERE " + sortedPredicates;
+		}
+
+		List<Predicate> getPredicates() {
+			return preds;
+		}
+
+		public void visit(Scan op) {
+			relations.add(op.toString());
+		}
+
+		public void visit(Project op) {
+			projection = op.getAttributes().toString();
+		}
+
+		public void visit(Select op) {
+			predicates.add(shapeOf(op.getPredicate()));
+			preds.add(op.getPredicate());
+		}
+
+		public void visit(Product op) {
+			// nothing to record
+		}
+
+		public void visit(Join op) {
+			predicates.add(shapeOf(op.getPredicate()));
+			preds.add(op.getPredicate());
+		}
+	}
+
+	/**
+	 * Visitor copying a plan bottom-up with substituted predicates.
+	 * Predicates the optimiser derived from a query predicate are derived
+	 * afresh from the query predicate substituted for their source.
+	 */
+	private static class Binder implements PlanVisitor {
+		private Map<String, Deque<Predicate>> byShape;
+		private Map<Predicate, Predicate> bound = new IdentityHashMap<Predicate, Predicate>();
+		private Deque<Operator> stack = new ArrayDeque<Operator>();
+		private boolean failed;
+
+		Binder(Map<String, Deque<Predicate>> byShape) {
+			this.byShape = byShape;
+		}
+
+		Operator getResult() {
+			return failed ? null : stack.pop();
+		}
+
+		public void visit(Scan op) {
+			stack.push(new Scan((NamedRelation) op.getRelation()));
+		}
+
+		public void visit(Project op) {
+			stack.push(new Project(stack.pop(), op.getAttributes()));
+		}
+
+		public void visit(Select op) {
+			Predicate pred = op.getPredicate();
+			if (pred.comparesValue()) {
+				pred = bind(pred);
+			}
+			stack.push(new Select(stack.pop(), pred));
+		}
+
+		private Predicate bind(Predicate pred) {
+			if (bound.containsKey(pred)) {
+				return bound.get(pred);
+			}
+			Predicate ret = pred;
+			if (pred.getSource() != null) {
+				ret = bind(pred.getSource()).derive(pred.getLeftAttribute());
+			} else {
+				Deque<Predicate> candidates = byShape.get(shapeOf(pred));
+				if (candidates == null || candidates.isEmpty()) {
+					failed = true;
+				} else {
+					ret = candidates.poll();
+				}
+			}
+			bound.put(pred, ret);
+			return ret;
+		}
+
+		public void visit(Product op) {
+			Operator right = stack.pop();
+			stack.push(new Product(stack.pop(), right));
+		}
+
+		public void visit(Join op) {
+			Operator right = stack.pop();
+			stack.push(new Join(stack.pop(), right, op.getPredicate()));
+		}
+	}
+}
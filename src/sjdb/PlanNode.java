@@ -0,0 +1,374 @@
+package sjdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is an immutable node of a query plan, an alternative to the
+ * mutable Operator classes for use during plan search.
+ *
+ * Nodes are made by a PlanNode.Factory, which hash-conses them: a node
+ * that is structurally equal to one made before (same kind, relation,
+ * predicate or attributes, and the same inputs) is returned as the
+ * existing node, so each distinct subplan exists once in memory however
+ * many candidate plans share it. Since the inputs of a node are always
+ * canonical, nodes are compared in constant time, and the structural hash
+ * is computed once when the node is made.
+ *
+ * Nodes never change once made, so they may be shared freely between
+ * threads. The estimated output and cost of a node are computed at most
+ * once per node (see getCost()) and are then kept with it; racing threads
+ * at worst compute the same estimate twice.
+ *
+ * Predicates are compared by their structure (attributes, comparison and
+ * values) and by the identity of the predicate they were inferred from, if
+ * any (see Predicate.getSource()), rather than by their own identity. Scans are compared by the identity of
+ * their NamedRelation, so plans over different catalogue snapshots are
+ * kept apart.
+ *
+ * toOperator() converts a node into a new Operator tree, and accept()
+ * passes that tree to a PlanVisitor; Factory.of() converts an Operator
+ * tree into nodes.
+ */
+public final class PlanNode {
+	/**
+	 * The operator at a node.
+	 */
+	public enum Kind {
+		SCAN, SELECT, PROJECT, PRODUCT, JOIN
+	}
+
+	/**
+	 * The estimated output relation and cost of a node, published together.
+	 */
+	private static class Estimate {
+		final Relation output;
+		final long cost;
+
+		Estimate(Relation output, long cost) {
+			this.output = output;
+			this.cost = cost;
+		}
+	}
+
+	/**
+	 * An already estimated input, standing in for a node's input when the
+	 * node alone is estimated.
+	 */
+	private static class Estimated extends Operator {
+		Estimated(Estimate estimate) {
+			this.output = estimate.output;
+			this.cost = estimate.cost;
+		}
+
+		public void visitSelf(PlanVisitor visitor) {
+			throw new IllegalStateException("input is already estimated");
+		}
+	}
+
+	private final Kind kind;
+	private final NamedRelation relation;
+	private final Predicate predicate;
+	private final List<Attribute> attributes;
+	private final PlanNode left;
+	private final PlanNode right;
+	private final int hash;
+	private volatile Estimate estimate;
+
+	private PlanNode(Kind kind, NamedRelation relation, Predicate predicate, List<Attribute> attributes,
+			PlanNode left, PlanNode right) {
+		this.kind = kind;
+		this.relation = relation;
+		this.predicate = predicate;
+		this.attributes = attributes;
+		this.left = left;
+		this.right = right;
+
+		int h = kind.hashCode();
+		h = 31 * h + (relation == null ? 0 : relation.getName().hashCode());
+		h = 31 * h + (predicate == null ? 0 : hashOf(predicate));
+		h = 31 * h + (attributes == null ? 0 : attributes.hashCode());
+		h = 31 * h + (left == null ? 0 : left.hash);
+		h = 31 * h + (right == null ? 0 : right.hash);
+		this.hash = h;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the scanned relation of a SCAN node, otherwise null
+	 */
+	public NamedRelation getRelation() {
+		return relation;
+	}
+
+	/**
+	 * @return the predicate of a SELECT or JOIN node, otherwise null
+	 */
+	public Predicate getPredicate() {
+		return predicate;
+	}
+
+	/**
+	 * @return the projected attributes of a PROJECT node, otherwise null
+	 */
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @return the input of a SELECT or PROJECT node, the left input of a
+	 * PRODUCT or JOIN node, or null for a SCAN node
+	 */
+	public PlanNode getLeft() {
+		return left;
+	}
+
+	/**
+	 * @return the right input of a PRODUCT or JOIN node, otherwise null
+	 */
+	public PlanNode getRight() {
+		return right;
+	}
+
+	/**
+	 * Return the estimated cost of the subplan rooted at this node,
+	 * estimating it and any inputs not estimated before.
+	 * @param estimator
+	 * @return
+	 */
+	public long getCost(Estimator estimator) {
+		return estimate(estimator).cost;
+	}
+
+	/**
+	 * Return the estimated output relation of this node, estimating it
+	 * and any inputs not estimated before. The relation must not be
+	 * modified.
+	 * @param estimator
+	 * @return
+	 */
+	public Relation getOutput(Estimator estimator) {
+		return estimate(estimator).output;
+	}
+
+	/**
+	 * @return whether this node has been estimated
+	 */
+	public boolean isEstimated() {
+		return estimate != null;
+	}
+
+	private Estimate estimate(Estimator estimator) {
+		Estimate ret = estimate;
+		if (ret == null) {
+			List<Operator> inputs = new ArrayList<Operator>(2);
+			if (left != null) {
+				inputs.add(new Estimated(left.estimate(estimator)));
+			}
+			if (right != null) {
+				inputs.add(new Estimated(right.estimate(estimator)));
+			}
+			Operator op = operatorOver(inputs);
+			estimator.getCost(op);
+			ret = new Estimate(op.getOutput(), op.getCost());
+			estimate = ret;
+		}
+		return ret;
+	}
+
+	/**
+	 * Build the operator for this node alone over the given inputs.
+	 */
+	private Operator operatorOver(List<Operator> inputs) {
+		switch (kind) {
+		case SCAN:
+			return new Scan(relation);
+		case SELECT:
+			return new Select(inputs.get(0), predicate);
+		case PROJECT:
+			return new Project(inputs.get(0), new ArrayList<Attribute>(attributes));
+		case PRODUCT:
+			return new Product(inputs.get(0), inputs.get(1));
+		default:
+			return new Join(inputs.get(0), inputs.get(1), predicate);
+		}
+	}
+
+	/**
+	 * Build a new Operator tree for the subplan rooted at this node. The
+	 * operators are the caller's own; those for estimated nodes are given
+	 * their output relation and cost.
+	 * @return
+	 */
+	public Operator toOperator() {
+		List<Operator> inputs = new ArrayList<Operator>(2);
+		if (left != null) {
+			inputs.add(left.toOperator());
+		}
+		if (right != null) {
+			inputs.add(right.toOperator());
+		}
+		Operator op = operatorOver(inputs);
+		Estimate known = estimate;
+		if (known != null) {
+			op.setOutput(known.output);
+			op.setCost(known.cost);
+		}
+		return op;
+	}
+
+	/**
+	 * Pass an Operator tree for this subplan to a visitor, depth-first
+	 * and left-to-right as Operator.accept() does.
+	 * @param visitor
+	 */
+	public void accept(PlanVisitor visitor) {
+		toOperator().accept(visitor);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof PlanNode)) {
+			return false;
+		}
+		PlanNode rhs = (PlanNode) obj;
+		// inputs are canonical, so they are compared by identity
+		return hash == rhs.hash && kind == rhs.kind && relation == rhs.relation
+				&& left == rhs.left && right == rhs.right
+				&& (predicate == null ? rhs.predicate == null : rhs.predicate != null && sameAs(predicate, rhs.predicate))
+				&& (attributes == null ? rhs.attributes == null : attributes.equals(rhs.attributes));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return toOperator().toString();
+	}
+
+	private static int hashOf(Predicate pred) {
+		int h = pred.getComparison().hashCode();
+		h = 31 * h + pred.getLeftAttribute().hashCode();
+		h = 31 * h + (pred.getRightAttribute() == null ? 0 : pred.getRightAttribute().hashCode());
+		h = 31 * h + (pred.getRightValue() == null ? 0 : pred.getRightValue().hashCode());
+		h = 31 * h + (pred.getUpperValue() == null ? 0 : pred.getUpperValue().hashCode());
+		h = 31 * h + (pred.getValues() == null ? 0 : pred.getValues().hashCode());
+		h = 31 * h + System.identityHashCode(pred.getSource());
+		return h;
+	}
+
+	/**
+	 * PlanCache binds an inferred predicate through its source, so an
+	 * inferred predicate must not stand in for one in the query.
+	 */
+	private static boolean sameAs(Predicate a, Predicate b) {
+		return a == b || (a.getComparison() == b.getComparison()
+				&& a.getSource() == b.getSource()
+				&& a.getLeftAttribute().equals(b.getLeftAttribute())
+				&& equal(a.getRightAttribute(), b.getRightAttribute())
+				&& equal(a.getRightValue(), b.getRightValue())
+				&& equal(a.getUpperValue(), b.getUpperValue())
+				&& equal(a.getValues(), b.getValues()));
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Makes canonical PlanNodes. A factory may be shared by any number of
+	 * threads; nodes from different factories should not be mixed.
+	 */
+	public static class Factory {
+		private final ConcurrentHashMap<PlanNode, PlanNode> nodes = new ConcurrentHashMap<PlanNode, PlanNode>();
+
+		public PlanNode scan(NamedRelation relation) {
+			return intern(new PlanNode(Kind.SCAN, relation, null, null, null, null));
+		}
+
+		public PlanNode select(PlanNode input, Predicate predicate) {
+			return intern(new PlanNode(Kind.SELECT, null, predicate, null, input, null));
+		}
+
+		public PlanNode project(PlanNode input, List<Attribute> attributes) {
+			return intern(new PlanNode(Kind.PROJECT, null, null,
+					Collections.unmodifiableList(new ArrayList<Attribute>(attributes)), input, null));
+		}
+
+		public PlanNode product(PlanNode left, PlanNode right) {
+			return intern(new PlanNode(Kind.PRODUCT, null, null, null, left, right));
+		}
+
+		public PlanNode join(PlanNode left, PlanNode right, Predicate predicate) {
+			return intern(new PlanNode(Kind.JOIN, null, predicate, null, left, right));
+		}
+
+		/**
+		 * Convert an Operator tree into canonical nodes.
+		 * @param plan
+		 * @return
+		 */
+		public PlanNode of(Operator plan) {
+			Converter converter = new Converter();
+			plan.accept(converter);
+			return converter.stack.pop();
+		}
+
+		/**
+		 * @return the number of distinct nodes made by this factory
+		 */
+		public int size() {
+			return nodes.size();
+		}
+
+		private PlanNode intern(PlanNode node) {
+			PlanNode existing = nodes.putIfAbsent(node, node);
+			return existing == null ? node : existing;
+		}
+
+		/**
+		 * Visitor building nodes bottom-up from an Operator tree.
+		 */
+		private class Converter implements PlanVisitor {
+			private Deque<PlanNode> stack = new ArrayDeque<PlanNode>();
+
+			public void visit(Scan op) {
+				stack.push(scan((NamedRelation) op.getRelation()));
+			}
+
+			public void visit(Project op) {
+				stack.push(project(stack.pop(), op.getAttributes()));
+			}
+
+			public void visit(Select op) {
+				stack.push(select(stack.pop(), op.getPredicate()));
+			}
+
+			public void visit(Product op) {
+				PlanNode right = stack.pop();
+				stack.push(product(stack.pop(), right));
+			}
+
+			public void visit(Join op) {
+				PlanNode right = stack.pop();
+				stack.push(join(stack.pop(), right, op.getPredicate()));
+			}
+		}
+	}
+}
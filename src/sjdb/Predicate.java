@@ -1,18 +1,54 @@
 package sjdb;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 /**
  * This class is used to represent the predicates associated with 
- * joins and select operators. Note that, while a string value is
- * required for predicates of the form attr=value, this values is 
- * only used by the toString() method; a future version of
- * Attribute which uses more expressive synopses may change this.
+ * joins and select operators. Predicates are of one of the forms
+ * 
+ * attr=attr
+ * attr=value, attr<value, attr<=value, attr>value, attr>=value
+ * attr BETWEEN value AND value
+ * attr IN (value,value,...,value)
+ * 
+ * The string values are used by the Estimator when the attribute carries
+ * a Histogram, and are otherwise only used by the toString() method.
  * 
  * @author nmg
  */
 public class Predicate {
+	/**
+	 * The comparison made by a predicate.
+	 */
+	public enum Comparison {
+		EQUALS("="),
+		LESS("<"),
+		LESS_EQUALS("<="),
+		GREATER(">"),
+		GREATER_EQUALS(">="),
+		BETWEEN(" BETWEEN "),
+		IN(" IN ");
+		
+		private String symbol;
+		
+		private Comparison(String symbol) {
+			this.symbol = symbol;
+		}
+		
+		public String toString() {
+			return symbol;
+		}
+	}
+	
 	private Attribute leftAttribute;
 	private Attribute rightAttribute;
+	private Comparison comparison;
 	private String rightValue;
+	private String upperValue;
+	private List<String> values;
+	private Predicate source;	// the predicate this one was inferred from, if any
 
 	/**
 	 * Create a predicate of the form attr=attr
@@ -22,6 +58,7 @@ public class Predicate {
 	public Predicate(Attribute left, Attribute right) {
 		this.leftAttribute = left;
 		this.rightAttribute = right;
+		this.comparison = Comparison.EQUALS;
 	}
 
 	/**
@@ -30,16 +67,100 @@ public class Predicate {
 	 * @param value
 	 */
 	public Predicate(Attribute left, String value) {
+		this(left, Comparison.EQUALS, value);
+	}
+
+	/**
+	 * Create a predicate of the form attr=value, attr<value, attr<=value,
+	 * attr>value or attr>=value
+	 * @param left
+	 * @param comparison
+	 * @param value
+	 */
+	public Predicate(Attribute left, Comparison comparison, String value) {
+		if (comparison == Comparison.BETWEEN || comparison == Comparison.IN) {
+			throw new IllegalArgumentException(comparison.name() + " takes more than one value");
+		}
 		this.leftAttribute = left;
+		this.comparison = comparison;
 		this.rightValue = value;
 	}
 
+	/**
+	 * Create a predicate of the form attr BETWEEN lower AND upper
+	 * @param left
+	 * @param lower
+	 * @param upper
+	 */
+	public Predicate(Attribute left, String lower, String upper) {
+		this.leftAttribute = left;
+		this.comparison = Comparison.BETWEEN;
+		this.rightValue = lower;
+		this.upperValue = upper;
+	}
+
+	/**
+	 * Create a predicate of the form attr IN (value,...,value)
+	 * @param left
+	 * @param values at least one value
+	 */
+	public Predicate(Attribute left, List<String> values) {
+		if (values.isEmpty()) {
+			throw new IllegalArgumentException("IN takes at least one value");
+		}
+		this.leftAttribute = left;
+		this.comparison = Comparison.IN;
+		this.values = new ArrayList<String>(values);
+	}
+
+	/**
+	 * Create a predicate of the form attr=value comparing the given
+	 * attribute with the value of this attr=value predicate, as inferred
+	 * when the two attributes are known to be equal.
+	 * @param attr
+	 * @return
+	 */
+	public Predicate derive(Attribute attr) {
+		if (!equalsValue()) {
+			throw new IllegalArgumentException("Only attr=value predicates can be derived from: " + this);
+		}
+		Predicate ret = new Predicate(attr, this.rightValue);
+		ret.source = this;
+		return ret;
+	}
+	
+	/**
+	 * Return the predicate this one was derived from, or null if it was
+	 * not inferred.
+	 * @return
+	 */
+	public Predicate getSource() {
+		return this.source;
+	}
+	
 	/**
 	 * Return true if this predicate is of the form attr=value
 	 * @return
 	 */
 	public boolean equalsValue() {
-		return this.rightValue != null;
+		return this.comparison == Comparison.EQUALS && this.rightValue != null;
+	}
+	
+	/**
+	 * Return true if this predicate compares an attribute with one or more
+	 * values rather than with another attribute
+	 * @return
+	 */
+	public boolean comparesValue() {
+		return this.rightAttribute == null;
+	}
+	
+	/**
+	 * Return the comparison made by this predicate
+	 * @return comparison
+	 */
+	public Comparison getComparison() {
+		return this.comparison;
 	}
 	
 	/**
@@ -59,21 +180,48 @@ public class Predicate {
 	}
 	
 	/**
-	 * Return VALUE for predicates of the form attr=VALUE
+	 * Return VALUE for predicates of the form attr=VALUE (or attr<VALUE
+	 * and so on), or the lower bound of attr BETWEEN VALUE AND value
 	 * @return right value
 	 */
 	public String getRightValue() {
 		return this.rightValue;
 	}
 	
+	/**
+	 * Return VALUE for predicates of the form attr BETWEEN value AND VALUE
+	 * @return upper value
+	 */
+	public String getUpperValue() {
+		return this.upperValue;
+	}
+	
+	/**
+	 * Return the values of a predicate of the form attr IN (values)
+	 * @return list of values
+	 */
+	public List<String> getValues() {
+		return this.values;
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
-		if (this.rightValue == null) {
+		if (this.rightAttribute != null) {
 			return this.leftAttribute.toString() + "=" + this.rightAttribute.toString(); 
+		} else if (this.comparison == Comparison.BETWEEN) {
+			return this.leftAttribute.toString() + " BETWEEN \"" + this.rightValue
+					+ "\" AND \"" + this.upperValue + "\"";
+		} else if (this.comparison == Comparison.IN) {
+			String ret = this.leftAttribute.toString() + " IN (";
+			Iterator<String> iter = this.values.iterator();
+			while (iter.hasNext()) {
+				ret += "\"" + iter.next() + "\"" + (iter.hasNext() ? "," : "");
+			}
+			return ret + ")";
 		} else {
-			return this.leftAttribute.toString() + "=\"" + this.rightValue + "\"";
+			return this.leftAttribute.toString() + this.comparison + "\"" + this.rightValue + "\"";
 		}
 	}
 }
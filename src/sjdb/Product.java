@@ -23,6 +23,13 @@ public class Product extends BinaryOperator {
 		visitor.visit(this);
 	}
 
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#visitSelf(sjdb.PlanVisitor)
+	 */
+	public void visitSelf(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
@@ -0,0 +1,80 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements the Product operator as a block nested loop: the
+ * right input is read into memory, and each batch of the left input is
+ * paired with all of it. Subclasses may restrict the pairs produced by
+ * overriding matches().
+ */
+public class ProductExec extends PhysicalOperator {
+	private PhysicalOperator left;
+	private PhysicalOperator right;
+	private Table inner;
+	private Batch outer;
+	private int outerRow;
+	private int innerRow;
+	private Batch.Builder builder;
+
+	/**
+	 * @param left left child operator
+	 * @param right right child operator
+	 */
+	public ProductExec(PhysicalOperator left, PhysicalOperator right) {
+		super(concat(left.getAttributes(), right.getAttributes()));
+		this.left = left;
+		this.right = right;
+		this.builder = new Batch.Builder(attributes.size());
+	}
+
+	protected static List<Attribute> concat(List<Attribute> left, List<Attribute> right) {
+		List<Attribute> attributes = new ArrayList<Attribute>(left);
+		attributes.addAll(right);
+		return attributes;
+	}
+
+	/**
+	 * Decide whether a pair of tuples is part of the output.
+	 * @param outer columns of the left tuple
+	 * @param outerRow
+	 * @param inner columns of the right tuple
+	 * @param innerRow
+	 * @return true for every pair
+	 */
+	protected boolean matches(int[][] outer, int outerRow, int[][] inner, int innerRow) {
+		return true;
+	}
+
+	@Override
+	public Batch next() {
+		if (inner == null) {
+			inner = materialise(right);
+		}
+		while (!builder.isFull()) {
+			if (outer == null || outerRow == outer.getSize()) {
+				outer = left.next();
+				outerRow = 0;
+				innerRow = 0;
+				if (outer == null) {
+					break;
+				}
+			}
+			int[][] outerColumns = outer.getColumns();
+			int[][] innerColumns = inner.getColumns();
+			int innerSize = inner.getTupleCount();
+			while (innerRow < innerSize && !builder.isFull()) {
+				if (matches(outerColumns, outerRow, innerColumns, innerRow)) {
+					builder.append(outerColumns, outerRow, innerColumns, innerRow);
+				}
+				innerRow++;
+			}
+			if (innerRow == innerSize) {
+				outerRow++;
+				innerRow = 0;
+			}
+		}
+		return builder.isEmpty() ? null : builder.build();
+	}
+}
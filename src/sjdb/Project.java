@@ -37,6 +37,13 @@ public class Project extends UnaryOperator {
 		visitor.visit(this);
 	}
 
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#visitSelf(sjdb.PlanVisitor)
+	 */
+	public void visitSelf(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
@@ -0,0 +1,39 @@
+package sjdb;
+
+import java.util.List;
+
+/**
+ * This class implements the Project operator. Projection keeps duplicate
+ * tuples, as assumed by the Estimator, so it only has to select columns;
+ * the column arrays of the input batches are shared, not copied.
+ */
+public class ProjectExec extends PhysicalOperator {
+	private PhysicalOperator input;
+	private int[] positions;
+
+	/**
+	 * @param input child operator
+	 * @param attributes attributes to be projected
+	 */
+	public ProjectExec(PhysicalOperator input, List<Attribute> attributes) {
+		super(attributes);
+		this.input = input;
+		this.positions = new int[attributes.size()];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = columnOf(input.getAttributes(), attributes.get(i));
+		}
+	}
+
+	@Override
+	public Batch next() {
+		Batch batch = input.next();
+		if (batch == null) {
+			return null;
+		}
+		int[][] columns = new int[positions.length][];
+		for (int i = 0; i < positions.length; i++) {
+			columns[i] = batch.getColumn(positions[i]);
+		}
+		return new Batch(columns, batch.getSize());
+	}
+}
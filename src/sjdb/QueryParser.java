@@ -5,6 +5,7 @@ package sjdb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
@@ -18,10 +19,13 @@ import java.util.regex.Matcher;
  * FROM <relation name>,<relation name>,...,<relation name>
  * WHERE <predicate>,<predicate>,...,<predicate>
  * 
- * where <predicate> is of one of the following two forms:
+ * where <predicate> is of one of the following forms:
  * 
  * <attribute name>="<value>"
  * <attribute name>=<attribute name>
+ * <attribute name><op>"<value>"     where <op> is one of <, <=, >, >=
+ * <attribute name> BETWEEN "<value>" AND "<value>"
+ * <attribute name> IN ("<value>","<value>",...,"<value>")
  * 
  * The WHERE line (corresponding to the select operators) is optional and 
  * may be omitted; the other lines are required.
@@ -33,14 +37,16 @@ import java.util.regex.Matcher;
  * 
  * Note that the author of this class was extremely lazy, and so the parsing 
  * is unforgiving and may be sensitive to extraneous whitespace. In particular, 
- * values in predicates that contain spaces (or for that matter commas) will 
- * break the parsing of the WHERE clause.
+ * values in predicates that contain commas will break the parsing of the 
+ * WHERE clause (commas are allowed within the parentheses of an IN list). 
+ * A predicate of none of the forms above, including an IN list that is
+ * empty or holds anything but quoted values, is rejected.
  * 
  * @author nmg
  */
 public class QueryParser {
 	private BufferedReader reader;
-	private Catalogue catalogue;
+	private CatalogueSnapshot catalogue;
 
 	/**
 	 * Create a new QueryParser. This class is intended to be used once only;
@@ -51,6 +57,18 @@ public class QueryParser {
 	 * @throws Exception
 	 */
 	public QueryParser(Catalogue catalogue, Reader input) throws Exception {
+		this(catalogue.snapshot(), input);
+	}
+	
+	/**
+	 * Create a new QueryParser that resolves relation names against the
+	 * given catalogue snapshot.
+	 * 
+	 * @param catalogue
+	 * @param input
+	 * @throws Exception
+	 */
+	public QueryParser(CatalogueSnapshot catalogue, Reader input) throws Exception {
 		this.catalogue = catalogue;
 		this.reader = new BufferedReader(input);
 	}
@@ -135,47 +153,125 @@ public class QueryParser {
 	 * @param op
 	 * @return
 	 */
-	private Operator parseSelect(String line, Operator op) {
+	private Operator parseSelect(String line, Operator op) throws DatabaseException {
 		String[] prds = line.split("WHERE\\s+");
 
-		String[] pred = prds[1].split("\\s*,\\s*");
+		List<String> pred = splitPredicates(prds[1]);
 		Operator ret = op;
 		
-		for (int i=0; i<pred.length; i++) {
-			ret = buildSelect(pred[i].trim(), ret);
+		for (int i=0; i<pred.size(); i++) {
+			ret = buildSelect(pred.get(i).trim(), ret);
 		}
 		
 		return ret;
 	}
 	
+	/**
+	 * Split a list of predicates at the commas that are not inside the
+	 * parentheses of an IN list.
+	 * @param line
+	 * @return
+	 */
+	private List<String> splitPredicates(String line) {
+		List<String> preds = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		
+		for (int i=0; i<line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				preds.add(line.substring(start, i));
+				start = i + 1;
+			}
+		}
+		preds.add(line.substring(start));
+		
+		return preds;
+	}
+	
 	/**
 	 * Build a chain of select operators.
 	 * @param pred
 	 * @param op
 	 * @return
+	 * @throws IllegalArgumentException if pred is not of a form given above
+	 * @throws DatabaseException if pred names an unknown attribute
 	 */
-	private Operator buildSelect(String pred, Operator op) {
-		Pattern p = Pattern.compile("(\\w+)=\"(\\w+)\"");
+	private Operator buildSelect(String pred, Operator op) throws DatabaseException {
+		Pattern p = Pattern.compile("(\\w+)\\s*(<=|>=|<|>|=)\\s*\"([^\"]*)\"");
+		Pattern between = Pattern.compile("(\\w+)\\s+BETWEEN\\s+\"([^\"]*)\"\\s+AND\\s+\"([^\"]*)\"");
+		Pattern in = Pattern.compile("(\\w+)\\s+IN\\s*\\(\\s*(\"[^\"]*\"(?:\\s*,\\s*\"[^\"]*\")*)\\s*\\)");
+		Pattern emptyIn = Pattern.compile("(\\w+)\\s+IN\\s*\\(\\s*\\)");
+		Pattern equals = Pattern.compile("(\\w+)\\s*=\\s*(\\w+)");
 		Matcher m = p.matcher(pred);
+		Matcher mb = between.matcher(pred);
+		Matcher mi = in.matcher(pred);
+		Matcher me = equals.matcher(pred);
 		Predicate ret;
 		
 		if (m.matches()) {
-			ret = new Predicate(new Attribute(m.group(1)), m.group(2));
+			ret = new Predicate(attribute(m.group(1)), parseComparison(m.group(2)), m.group(3));
+		} else if (mb.matches()) {
+			ret = new Predicate(attribute(mb.group(1)), mb.group(2), mb.group(3));
+		} else if (mi.matches()) {
+			ArrayList<String> values = new ArrayList<String>();
+			Matcher mv = Pattern.compile("\"([^\"]*)\"").matcher(mi.group(2));
+			while (mv.find()) {
+				values.add(mv.group(1));
+			}
+			ret = new Predicate(attribute(mi.group(1)), values);
+		} else if (me.matches()) {
+			ret = new Predicate(attribute(me.group(1)), attribute(me.group(2)));
+		} else if (emptyIn.matcher(pred).matches()) {
+			throw new IllegalArgumentException("Empty IN list in predicate: " + pred);
 		} else {
-			String[] atts = pred.split("=");
-			ret = new Predicate(new Attribute(atts[0]), new Attribute(atts[1]));
+			throw new IllegalArgumentException("Cannot parse predicate: " + pred);
 		}
 		
 		return new Select(op, ret);
 	}
 	
+	/**
+	 * Resolve an attribute name against the catalogue, so that the
+	 * attribute carries the catalogue's id for it.
+	 * @param name
+	 * @return
+	 * @throws DatabaseException if the catalogue has no such attribute
+	 */
+	private Attribute attribute(String name) throws DatabaseException {
+		return new Attribute(this.catalogue.getAttribute(name), 0, null);
+	}
+	
+	/**
+	 * Map a comparison operator onto the corresponding Comparison.
+	 * @param op
+	 * @return
+	 */
+	private Predicate.Comparison parseComparison(String op) {
+		if (op.equals("<")) {
+			return Predicate.Comparison.LESS;
+		} else if (op.equals("<=")) {
+			return Predicate.Comparison.LESS_EQUALS;
+		} else if (op.equals(">")) {
+			return Predicate.Comparison.GREATER;
+		} else if (op.equals(">=")) {
+			return Predicate.Comparison.GREATER_EQUALS;
+		} else {
+			return Predicate.Comparison.EQUALS;
+		}
+	}
+	
 	/**
 	 * Parse a "SELECT ..." line and build the corresponding project operator.
 	 * @param line
 	 * @param op
 	 * @return
 	 */
-	private Operator parseProject(String line, Operator op) {
+	private Operator parseProject(String line, Operator op) throws DatabaseException {
 		String[] atts = line.split("SELECT\\s+");		
 		if (atts[1].trim().equals("*")) {
 			return op;
@@ -184,7 +280,7 @@ public class QueryParser {
 			ArrayList<Attribute> attributes = new ArrayList<Attribute>();
 
 			for (int i=0; i<attr.length; i++) {
-				attributes.add(new Attribute(attr[i].trim()));
+				attributes.add(attribute(attr[i].trim()));
 			}
 
 			return new Project(op, attributes);
@@ -0,0 +1,191 @@
+package sjdb;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * This class answers a stream of queries against a catalogue that is
+ * loaded once, rather than once per query.
+ * 
+ * Queries are in the format read by QueryParser, and are separated by a
+ * blank line or by a ';' at the end of a line. Each query is parsed and
+ * optimised (and, if a DataStore is given, executed) on a shared pool of
+ * worker threads; the responses are written in the order in which the
+ * queries were read, each followed by a blank line. A response is the
+ * optimised plan and its estimated cost, then the query result if there
+ * is one, or a single "error: " line if the query failed.
+ * 
+ * Optimised plans are cached by query shape (see PlanCache).
+ */
+public class QueryServer {
+	private Catalogue catalogue;
+	private DataStore store;
+	private ExecutorService workers;
+	private PlanCache cache;
+
+	/**
+	 * @param catalogue catalogue to optimise queries against
+	 * @param store data to execute queries over, or null to only plan them
+	 * @param threads number of worker threads
+	 */
+	public QueryServer(Catalogue catalogue, DataStore store, int threads) {
+		this.catalogue = catalogue;
+		this.store = store;
+		this.workers = Executors.newFixedThreadPool(threads);
+		this.cache = new PlanCache(catalogue);
+	}
+
+	/**
+	 * Answer every query read from the input, writing responses to the
+	 * output, and return when the input is exhausted and every response
+	 * has been written.
+	 * @param input
+	 * @param output
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void serve(Reader input, Writer output) throws IOException, InterruptedException {
+		final BlockingQueue<Future<String>> pending = new LinkedBlockingQueue<Future<String>>();
+		final PrintWriter out = new PrintWriter(output);
+		// marks the end of the input; never run
+		final Future<String> end = new FutureTask<String>(new Callable<String>() {
+			public String call() {
+				return null;
+			}
+		});
+
+		// write responses in input order as they complete
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for (Future<String> response = pending.take(); response != end; response = pending.take()) {
+						out.println(response(response));
+						out.flush();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		writer.start();
+
+		try {
+			BufferedReader reader = new BufferedReader(input);
+			StringBuilder query = new StringBuilder();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String trimmed = line.trim();
+				boolean last = trimmed.isEmpty() || trimmed.endsWith(";");
+				if (trimmed.endsWith(";")) {
+					trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+				}
+				if (!trimmed.isEmpty()) {
+					query.append(trimmed).append('\n');
+				}
+				if (last && query.length() > 0) {
+					pending.put(submit(query.toString()));
+					query.setLength(0);
+				}
+			}
+			if (query.length() > 0) {
+				pending.put(submit(query.toString()));
+			}
+		} finally {
+			pending.put(end);
+			writer.join();
+		}
+	}
+
+	/**
+	 * Accept connections on the given port for ever, serving each on its
+	 * own thread.
+	 * @param port
+	 * @throws IOException
+	 */
+	public void listen(int port) throws IOException {
+		ServerSocket server = new ServerSocket(port);
+		try {
+			while (true) {
+				final Socket socket = server.accept();
+				new Thread(new Runnable() {
+					public void run() {
+						try {
+							serve(new InputStreamReader(socket.getInputStream()),
+									new OutputStreamWriter(socket.getOutputStream()));
+						} catch (Exception e) {
+							System.err.println(e.toString());
+						} finally {
+							try {
+								socket.close();
+							} catch (IOException e) {
+								// nothing more to do
+							}
+						}
+					}
+				}).start();
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * Stop the worker threads once queued queries have been answered.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	/**
+	 * @return the plan cache shared by all queries
+	 */
+	public PlanCache getCache() {
+		return cache;
+	}
+
+	private Future<String> submit(final String query) {
+		return workers.submit(new Callable<String>() {
+			public String call() throws Exception {
+				return answer(query);
+			}
+		});
+	}
+
+	/**
+	 * Parse, optimise and, if there is data, execute a single query.
+	 * @param query
+	 * @return the response text
+	 * @throws Exception
+	 */
+	private String answer(String query) throws Exception {
+		Operator plan = new QueryParser(catalogue, new StringReader(query)).parse();
+		Operator optPlan = cache.optimise(plan, new Optimiser(catalogue));
+		new PhysicalPlanner().plan(optPlan);
+
+		StringBuilder response = new StringBuilder();
+		response.append(optPlan).append('\n');
+		response.append("cost: ").append(new Estimator().getCost(optPlan)).append('\n');
+		if (store != null) {
+			response.append(new Executor(store).execute(optPlan).render(store.getDictionary()));
+		}
+		return response.toString();
+	}
+
+	private static String response(Future<String> response) throws InterruptedException {
+		try {
+			return response.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			return "error: " + (cause.getMessage() != null ? cause.getMessage() : cause.toString()) + "\n";
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package sjdb;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Bounded-time join enumerator for queries too wide for exhaustive search.
+ *
+ * A greedy left-deep ordering is built first: starting from the smallest
+ * relation, the relation whose addition gives the cheapest subplan is
+ * appended at each step, preferring relations linked by a join predicate
+ * over cross products. The ordering is then improved by simulated
+ * annealing (random swaps of two relations) until the planning budget,
+ * counted from the start of enumerate(), is spent. The deadline is checked
+ * before each candidate is built; once it has passed, the greedy ordering
+ * is completed without costing any more candidates, so planning overruns
+ * it by at most the cost of building one candidate and one complete plan.
+ * The search also stops once it has made as
+ * many moves as there are swaps, several times over, without finding a
+ * cheaper plan, so small queries take a few milliseconds rather than the
+ * whole budget.
+ */
+class RandomisedJoinEnumerator {
+
+    /** Relation sets are bitmasks in a long. */
+    static final int MAX_RELATIONS = Long.SIZE - 1;
+
+    private static final double INITIAL_TEMPERATURE = 0.3;
+    private static final double COOLING = 0.95;
+    /** Stop early after this many times n*(n-1)/2 moves (the number of swaps) without improvement. */
+    private static final int STALE_ROUNDS = 10;
+
+    private final Estimator estimator;
+    private final PlanBuilder builder;
+    private final long budget;
+    private long deadline;
+    private final Random random;
+    private final OptimiserMetrics metrics;
+
+    /**
+     * @param estimator used to cost candidate subplans
+     * @param opList subplans generated by pushSelectAndProjectDown()
+     * @param predList predicates still to be applied
+     * @param plan the canonical plan being optimised
+     * @param budget nanoseconds that enumerate() may take
+     * @param seed seed for the random moves
+     * @param metrics planning metrics to record, or null
+     */
+    RandomisedJoinEnumerator(Estimator estimator, List<Operator> opList, List<Predicate> predList,
+                             Operator plan, long budget, long seed, OptimiserMetrics metrics) {
+        this.estimator = estimator;
+        this.builder = new PlanBuilder(opList, predList, plan);
+        this.budget = budget;
+        this.random = new Random(seed);
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the cheapest plan found within the budget
+     */
+    Operator enumerate() {
+        deadline = System.nanoTime() + budget;
+        int n = builder.size();
+        if (n > MAX_RELATIONS) {
+            throw new IllegalArgumentException("Too many relations to plan: " + n);
+        }
+        for (int i = 0; i < n; i++) {
+            // base subplans may carry selects added by the builder
+            estimator.getCost(builder.getBase(i));
+        }
+        if (n == 1) {
+            return builder.getBase(0);
+        }
+
+        int[] order = greedyOrder();
+        Operator[] prefix = new Operator[n];
+        long cost = build(order, prefix, 0);
+        Operator bestPlan = prefix[n - 1];
+        long bestCost = cost;
+
+        double temperature = INITIAL_TEMPERATURE;
+        int moves = 0;
+        int lastImprovement = 0;
+        int staleLimit = STALE_ROUNDS * n * (n - 1) / 2;
+        while (System.nanoTime() < deadline && moves - lastImprovement < staleLimit) {
+            int i = random.nextInt(n);
+            int j = random.nextInt(n - 1);
+            if (j >= i) {
+                j++;
+            }
+            int[] nextOrder = order.clone();
+            nextOrder[i] = order[j];
+            nextOrder[j] = order[i];
+            // subplans before the first swapped position are unchanged
+            Operator[] nextPrefix = prefix.clone();
+            long nextCost = build(nextOrder, nextPrefix, Math.min(i, j));
+
+            double delta = (nextCost - (double) cost) / Math.max(cost, 1);
+            if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+                order = nextOrder;
+                prefix = nextPrefix;
+                cost = nextCost;
+            }
+            if (nextCost < bestCost) {
+                bestPlan = nextPrefix[n - 1];
+                bestCost = nextCost;
+                lastImprovement = moves;
+            }
+            if (++moves % n == 0) {
+                temperature *= COOLING;
+            }
+        }
+        return bestPlan;
+    }
+
+    /**
+     * Greedily choose a left-deep join order. If the deadline passes
+     * part-way, the remaining relations are appended as they come, without
+     * building candidates for them.
+     * @return relation positions in join order
+     */
+    private int[] greedyOrder() {
+        int n = builder.size();
+        int[] order = new int[n];
+        boolean[] used = new boolean[n];
+
+        int first = 0;
+        for (int i = 1; i < n; i++) {
+            if (builder.getBase(i).getOutput().getTupleCount() < builder.getBase(first).getOutput().getTupleCount()) {
+                first = i;
+            }
+        }
+        order[0] = first;
+        used[first] = true;
+        long set = PlanBuilder.bit(first);
+        Operator current = builder.getBase(first);
+
+        for (int k = 1; k < n; k++) {
+            if (System.nanoTime() >= deadline) {
+                for (int i = 0; i < n; i++) {
+                    if (!used[i]) {
+                        order[k++] = i;
+                    }
+                }
+                break;
+            }
+            int next = -1;
+            Operator nextPlan = null;
+            long nextCost = Long.MAX_VALUE;
+            boolean nextConnected = false;
+            for (int i = 0; i < n && (next < 0 || System.nanoTime() < deadline); i++) {
+                if (used[i]) {
+                    continue;
+                }
+                boolean connected = builder.connected(set, PlanBuilder.bit(i));
+                if (nextConnected && !connected) {
+                    continue;
+                }
+                Operator candidate = builder.combine(current, set, builder.getBase(i), PlanBuilder.bit(i));
+                long cost = estimator.getCost(candidate);
+                if (metrics != null) {
+                    metrics.planBuilt();
+                    metrics.candidateCosted();
+                }
+                if (next < 0 || (connected && !nextConnected) || cost < nextCost) {
+                    next = i;
+                    nextPlan = candidate;
+                    nextCost = cost;
+                    nextConnected = connected;
+                }
+            }
+            order[k] = next;
+            used[next] = true;
+            set |= PlanBuilder.bit(next);
+            current = nextPlan;
+        }
+        return order;
+    }
+
+    /**
+     * Build the left-deep plan for a join order, reusing prefix[0..from-1].
+     * @param order relation positions in join order
+     * @param prefix prefix[k] receives the subplan for order[0..k]
+     * @param from first position to rebuild
+     * @return the cost of the complete plan
+     */
+    private long build(int[] order, Operator[] prefix, int from) {
+        if (from == 0) {
+            prefix[0] = builder.getBase(order[0]);
+            from = 1;
+        }
+        long set = 0;
+        for (int k = 0; k < from; k++) {
+            set |= PlanBuilder.bit(order[k]);
+        }
+        long cost = 0;
+        for (int k = from; k < order.length; k++) {
+            long right = PlanBuilder.bit(order[k]);
+            prefix[k] = builder.combine(prefix[k - 1], set, builder.getBase(order[k]), right);
+            // sets the output relations that the next combine() relies on
+            cost = estimator.getCost(prefix[k]);
+            set |= right;
+        }
+        if (metrics != null) {
+            metrics.planBuilt();
+            metrics.candidateCosted();
+            metrics.offerCost(cost);
+        }
+        return cost;
+    }
+}
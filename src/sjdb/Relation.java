@@ -8,16 +8,30 @@ import java.util.ArrayList;
  * The Relation class represents an unnamed relation. It consists of a 
  * number of attributes and a size (tuple count).
  * 
+ * Attributes are found by their ids (see Attribute.getId()). In a
+ * relation with more than a few attributes, the position of each
+ * attribute is indexed by id in a small open-addressed table, built on
+ * the first lookup, so that finding an attribute takes constant time
+ * rather than a scan of the list. Attributes without ids are found by
+ * a scan.
+ * 
  * @author nmg
  */
 public class Relation {
+	// relations with at most this many attributes are scanned instead of indexed
+	private static final int SCAN_LIMIT = 8;
+	// index of a relation with an attribute that has no id
+	private static final int[] NO_INDEX = new int[0];
+
 	private List<Attribute> attributes;
-	private int size;
+	private long size;
+	// position + 1 of each attribute, by hash of its id; 0 marks a free slot
+	private volatile int[] positions;
 
 	/**
 	 * Create a new relation with the given tuple count
 	 */
-	protected Relation(int size) {
+	protected Relation(long size) {
 		this.attributes = new ArrayList<Attribute>();
 		this.size = size;
 	}
@@ -41,7 +55,50 @@ public class Relation {
 	 * @return
 	 */
 	public Attribute getAttribute(Attribute attribute) {
-		return this.attributes.get(this.attributes.indexOf(attribute));
+		return this.attributes.get(indexOf(attribute));
+	}
+	
+	/**
+	 * Return the position of an attribute in this relation.
+	 * 
+	 * @param attribute
+	 * @return the position, or -1 if the relation has no such attribute
+	 */
+	public int indexOf(Attribute attribute) {
+		int id = attribute.getId();
+		int[] table = null;
+		if (id != Attribute.NO_ID && this.attributes.size() > SCAN_LIMIT) {
+			table = positions;
+			if (table == null) {
+				// relations are not changed once shared, so a racing thread
+				// at worst builds an identical table
+				table = buildIndex();
+				positions = table;
+			}
+		}
+		if (table == null || table == NO_INDEX) {
+			for (int i = 0; i < this.attributes.size(); i++) {
+				if (this.attributes.get(i).equals(attribute)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		int mask = table.length - 1;
+		for (int slot = hash(id) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			if (this.attributes.get(table[slot] - 1).getId() == id) {
+				return table[slot] - 1;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @param attribute
+	 * @return whether this relation has the attribute
+	 */
+	public boolean contains(Attribute attribute) {
+		return indexOf(attribute) >= 0;
 	}
 
 	/**
@@ -56,10 +113,42 @@ public class Relation {
 			// If the attribute has more distinct values than there are tuples
 			// in this relation, limit the distinct values to the number of
 			// tuples
-			this.attributes.add(new Attribute(attribute.getName(), this.size));
+			this.attributes.add(new Attribute(attribute, this.size, attribute.getHistogram()));
 		} else {
 			this.attributes.add(attribute);	
 		}
+		this.positions = null;
+	}
+	
+	/**
+	 * Index the position of each attribute, keeping the first of any
+	 * attributes with the same id.
+	 * @return the index, or NO_INDEX if an attribute has no id
+	 */
+	private int[] buildIndex() {
+		for (Attribute attr : this.attributes) {
+			if (attr.getId() == Attribute.NO_ID) {
+				return NO_INDEX;
+			}
+		}
+		int[] table = new int[Integer.highestOneBit(this.attributes.size()) * 4];
+		int mask = table.length - 1;
+		for (int position = 0; position < this.attributes.size(); position++) {
+			int id = this.attributes.get(position).getId();
+			int slot = hash(id) & mask;
+			while (table[slot] != 0 && this.attributes.get(table[slot] - 1).getId() != id) {
+				slot = (slot + 1) & mask;
+			}
+			if (table[slot] == 0) {
+				table[slot] = position + 1;
+			}
+		}
+		return table;
+	}
+	
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
 	}
 	
 	/**
@@ -67,7 +156,7 @@ public class Relation {
 	 * 
 	 * @return the tuples
 	 */
-	public int getTupleCount() {
+	public long getTupleCount() {
 		return size;
 	}
 	
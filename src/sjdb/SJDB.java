@@ -11,15 +11,69 @@ import java.io.*;
 public class SJDB {
 
 	/**
+	 * Usage: SJDB [--metrics] [--server [--threads <n>] [--port <n>]] <catalogue file> [<data directory>]
+	 *
+	 * The catalogue may be in the text or the binary form (see
+	 * BinaryCatalogue).
+	 *
+	 * If a data directory is given, the optimised plan is executed over the
+	 * relations loaded from it (see DataLoader) and the result printed.
+	 *
+	 * With --server, the catalogue is loaded once and a stream of queries is
+	 * answered from stdin, or from connections to the given port (see
+	 * QueryServer).
+	 *
+	 * With --metrics, the optimiser's planning metrics for the query are
+	 * written to stderr as JSON (see OptimiserMetrics).
+	 *
 	 * @param args
 	 */
 	public static void main(String[] args) throws Exception {
-		// read serialised catalogue from file and parse
-		String catFile = args[0];
+		boolean server = false;
+		boolean metrics = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int port = -1;
+		int arg = 0;
+		while (arg < args.length && args[arg].startsWith("--")) {
+			if (args[arg].equals("--metrics")) {
+				metrics = true;
+			} else if (args[arg].equals("--server")) {
+				server = true;
+			} else if (args[arg].equals("--threads")) {
+				threads = Integer.parseInt(args[++arg]);
+			} else if (args[arg].equals("--port")) {
+				port = Integer.parseInt(args[++arg]);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[arg]);
+			}
+			arg++;
+		}
+
+		// read serialised catalogue from file and parse, or map it if it is binary
+		String catFile = args[arg];
 		Catalogue cat = new Catalogue();
-		CatalogueParser catParser = new CatalogueParser(catFile, cat);
-		catParser.parse();
-		
+		if (BinaryCatalogue.isBinary(catFile)) {
+			cat.loadBinary(catFile);
+		} else {
+			StreamingCatalogueParser catParser = new StreamingCatalogueParser(catFile, cat);
+			catParser.parse();
+		}
+
+		if (server) {
+			DataStore store = args.length > arg + 1 ? new DataLoader(args[arg + 1], cat).load() : null;
+			QueryServer queryServer = new QueryServer(cat, store, threads);
+			try {
+				if (port >= 0) {
+					queryServer.listen(port);
+				} else {
+					queryServer.serve(new InputStreamReader(System.in), new OutputStreamWriter(System.out));
+				}
+			} finally {
+				queryServer.shutdown();
+			}
+			return;
+		}
+
 		// read stdin, parse, and build canonical query plan
 		QueryParser queryParser = new QueryParser(cat, new InputStreamReader(System.in));
 		Operator plan = queryParser.parse();
@@ -29,8 +83,24 @@ public class SJDB {
 		//plan.accept(est);
 		
 		// create optimised plan
-		//Optimiser opt = new Optimiser(cat);
-		//Operator optPlan = opt.optimise(plan);
+		Optimiser opt = new Optimiser(cat);
+		OptimiserMetrics optMetrics = metrics ? new OptimiserMetrics() : null;
+		opt.setMetrics(optMetrics);
+		Operator optPlan = opt.optimise(plan);
+		if (optMetrics != null) {
+			System.err.println(optMetrics.toJson());
+		}
+		
+		// choose join algorithms
+		PhysicalPlanner planner = new PhysicalPlanner();
+		planner.plan(optPlan);
+		
+		// load the data and run the optimised plan over it
+		if (args.length > arg + 1) {
+			DataStore store = new DataLoader(args[arg + 1], cat).load();
+			Table result = new Executor(store).execute(optPlan);
+			System.out.print(result.render(store.getDictionary()));
+		}
 	}
 
 }
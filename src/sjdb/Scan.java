@@ -59,4 +59,11 @@ public class Scan extends Operator {
 	public void accept(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#visitSelf(sjdb.PlanVisitor)
+	 */
+	public void visitSelf(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
 }
@@ -0,0 +1,27 @@
+package sjdb;
+
+/**
+ * This class implements the Scan operator, reading a stored table in batches.
+ */
+public class ScanExec extends PhysicalOperator {
+	private Table table;
+	private int position;
+
+	/**
+	 * @param table stored table to be scanned
+	 */
+	public ScanExec(Table table) {
+		super(table.getAttributes());
+		this.table = table;
+		this.position = 0;
+	}
+
+	@Override
+	public Batch next() {
+		Batch batch = table.getBatch(position);
+		if (batch != null) {
+			position += batch.getSize();
+		}
+		return batch;
+	}
+}
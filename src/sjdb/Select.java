@@ -26,6 +26,13 @@ public class Select extends UnaryOperator {
 		super.accept(visitor);
 		visitor.visit(this);
 	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#visitSelf(sjdb.PlanVisitor)
+	 */
+	public void visitSelf(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
 	
 	public String toString() {
 		return "SELECT [" + this.predicate.toString() + "] (" + getInput().toString() + ")";
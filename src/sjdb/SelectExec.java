@@ -0,0 +1,133 @@
+package sjdb;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * This class implements the Select operator. Predicates that compare an
+ * attribute with values are translated once into a range (or, for IN, a
+ * set) of dictionary codes, so that each batch is filtered with integer
+ * comparisons only.
+ */
+public class SelectExec extends PhysicalOperator {
+	private PhysicalOperator input;
+	private int column;
+	private int otherColumn;	// for attr=attr, otherwise -1
+	private int low;			// codes in [low, high) match
+	private int high;
+	private int[] codes;		// for IN, the sorted matching codes
+
+	/**
+	 * @param input child operator
+	 * @param predicate selection predicate
+	 * @param dictionary used to encode the predicate's values
+	 */
+	public SelectExec(PhysicalOperator input, Predicate predicate, Dictionary dictionary) {
+		super(input.getAttributes());
+		this.input = input;
+		this.column = columnOf(attributes, predicate.getLeftAttribute());
+		this.otherColumn = -1;
+		this.low = 0;
+		this.high = Integer.MAX_VALUE;
+
+		String value = predicate.getRightValue();
+		switch (predicate.getComparison()) {
+		case EQUALS:
+			if (!predicate.comparesValue()) {
+				this.otherColumn = columnOf(attributes, predicate.getRightAttribute());
+			} else {
+				int code = dictionary.encode(value);
+				this.low = code < 0 ? 0 : code;
+				this.high = code < 0 ? 0 : code + 1;
+			}
+			break;
+		case LESS:
+			this.high = dictionary.lowerBound(value);
+			break;
+		case LESS_EQUALS:
+			this.high = dictionary.upperBound(value);
+			break;
+		case GREATER:
+			this.low = dictionary.upperBound(value);
+			break;
+		case GREATER_EQUALS:
+			this.low = dictionary.lowerBound(value);
+			break;
+		case BETWEEN:
+			this.low = dictionary.lowerBound(value);
+			this.high = dictionary.upperBound(predicate.getUpperValue());
+			break;
+		case IN:
+			TreeSet<Integer> matching = new TreeSet<Integer>();
+			for (String v : predicate.getValues()) {
+				if (dictionary.encode(v) >= 0) {
+					matching.add(dictionary.encode(v));
+				}
+			}
+			this.codes = new int[matching.size()];
+			int i = 0;
+			for (Integer code : matching) {
+				this.codes[i++] = code;
+			}
+			break;
+		}
+	}
+
+	@Override
+	public Batch next() {
+		Batch batch;
+		while ((batch = input.next()) != null) {
+			int[] selected = new int[batch.getSize()];
+			int count = filter(batch, selected);
+			if (count == batch.getSize()) {
+				return batch;
+			} else if (count > 0) {
+				return gather(batch, selected, count);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Find the positions of the matching tuples in a batch.
+	 * @return the number of matching tuples
+	 */
+	private int filter(Batch batch, int[] selected) {
+		int[] values = batch.getColumn(column);
+		int size = batch.getSize();
+		int count = 0;
+		if (otherColumn >= 0) {
+			int[] others = batch.getColumn(otherColumn);
+			for (int row = 0; row < size; row++) {
+				if (values[row] == others[row]) {
+					selected[count++] = row;
+				}
+			}
+		} else if (codes != null) {
+			for (int row = 0; row < size; row++) {
+				if (Arrays.binarySearch(codes, values[row]) >= 0) {
+					selected[count++] = row;
+				}
+			}
+		} else {
+			for (int row = 0; row < size; row++) {
+				if (values[row] >= low && values[row] < high) {
+					selected[count++] = row;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static Batch gather(Batch batch, int[] selected, int count) {
+		int[][] columns = new int[batch.getWidth()][count];
+		for (int i = 0; i < columns.length; i++) {
+			int[] source = batch.getColumn(i);
+			int[] target = columns[i];
+			for (int j = 0; j < count; j++) {
+				target[j] = source[selected[j]];
+			}
+		}
+		return new Batch(columns, count);
+	}
+}
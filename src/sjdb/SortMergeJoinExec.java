@@ -0,0 +1,116 @@
+package sjdb;
+
+import java.util.Arrays;
+
+/**
+ * This class implements the Join operator as a sort-merge join. Both
+ * inputs are read into memory and their row positions sorted on the join
+ * attribute (packed with the key into a long, so the sort is on primitives);
+ * the sorted inputs are then merged, pairing every tuple in a run of equal
+ * keys on the left with every tuple in the matching run on the right.
+ */
+public class SortMergeJoinExec extends PhysicalOperator {
+	private PhysicalOperator left;
+	private PhysicalOperator right;
+	private int leftColumn;
+	private int rightColumn;
+
+	private Table leftTable;
+	private Table rightTable;
+	private long[] leftOrder;
+	private long[] rightOrder;
+	// merge state: current runs [leftStart, leftEnd) and [rightStart, rightEnd), and the pair reached
+	private int leftStart;
+	private int leftEnd;
+	private int rightStart;
+	private int rightEnd;
+	private int leftPos;
+	private int rightPos;
+	private Batch.Builder builder;
+
+	/**
+	 * @param left left child operator
+	 * @param right right child operator
+	 * @param predicate join predicate, whose left attribute is produced by left
+	 */
+	public SortMergeJoinExec(PhysicalOperator left, PhysicalOperator right, Predicate predicate) {
+		super(ProductExec.concat(left.getAttributes(), right.getAttributes()));
+		this.left = left;
+		this.right = right;
+		this.leftColumn = columnOf(left.getAttributes(), predicate.getLeftAttribute());
+		this.rightColumn = columnOf(right.getAttributes(), predicate.getRightAttribute());
+	}
+
+	private static long[] sort(Table table, int column) {
+		int[] keys = table.getColumns()[column];
+		long[] order = new long[table.getTupleCount()];
+		for (int row = 0; row < order.length; row++) {
+			order[row] = ((long) keys[row] << 32) | row;
+		}
+		Arrays.sort(order);
+		return order;
+	}
+
+	private static int key(long entry) {
+		return (int) (entry >>> 32);
+	}
+
+	private static int row(long entry) {
+		return (int) entry;
+	}
+
+	@Override
+	public Batch next() {
+		if (builder == null) {
+			builder = new Batch.Builder(attributes.size());
+			leftTable = materialise(left);
+			rightTable = materialise(right);
+			leftOrder = sort(leftTable, leftColumn);
+			rightOrder = sort(rightTable, rightColumn);
+		}
+		int[][] leftColumns = leftTable.getColumns();
+		int[][] rightColumns = rightTable.getColumns();
+
+		while (!builder.isFull()) {
+			if (leftPos < leftEnd) {
+				// emit the pairs of the current runs
+				builder.append(leftColumns, row(leftOrder[leftPos]), rightColumns, row(rightOrder[rightPos]));
+				if (++rightPos == rightEnd) {
+					rightPos = rightStart;
+					leftPos++;
+				}
+				continue;
+			}
+			// advance to the next pair of runs with equal keys
+			leftStart = leftEnd;
+			rightStart = rightEnd;
+			while (leftStart < leftOrder.length && rightStart < rightOrder.length
+					&& key(leftOrder[leftStart]) != key(rightOrder[rightStart])) {
+				if (key(leftOrder[leftStart]) < key(rightOrder[rightStart])) {
+					leftStart++;
+				} else {
+					rightStart++;
+				}
+			}
+			if (leftStart == leftOrder.length || rightStart == rightOrder.length) {
+				// no more runs: leave no pairs to emit on a later call
+				leftEnd = leftStart;
+				rightEnd = rightStart;
+				leftPos = leftEnd;
+				break;
+			}
+			int key = key(leftOrder[leftStart]);
+			leftEnd = leftStart;
+			while (leftEnd < leftOrder.length && key(leftOrder[leftEnd]) == key) {
+				leftEnd++;
+			}
+			rightEnd = rightStart;
+			while (rightEnd < rightOrder.length && key(rightOrder[rightEnd]) == key) {
+				rightEnd++;
+			}
+			leftPos = leftStart;
+			rightPos = rightStart;
+		}
+		return builder.isEmpty() ? null : builder.build();
+	}
+}
@@ -0,0 +1,205 @@
+package sjdb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class parses a serialised system catalogue in the same format as
+ * CatalogueParser, but is intended for very large catalogues.
+ *
+ * The file is read through a FileChannel into a fixed ByteBuffer, and
+ * each line is tokenised in place: fields are located by their offsets
+ * in the buffer and numbers are decoded directly from the bytes, so the
+ * only objects created per attribute are its name and the Attribute
+ * itself. Attributes with most common values or histogram bounds are
+ * handed to CatalogueParser.parseHistogram(). Each relation is built
+ * with all its attributes before it is added to the catalogue, rather
+ * than copied once per attribute by Catalogue.createAttribute().
+ *
+ * Unlike CatalogueParser, errors are not swallowed: a malformed line, or
+ * a negative count, is reported with its line number in a
+ * DatabaseException, and blank lines are skipped. All the relations in
+ * the file are published to the catalogue as a single version, and none
+ * of them if the file cannot be parsed.
+ */
+public class StreamingCatalogueParser {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private String filename;
+	private Catalogue catalogue;
+	private byte[] line = new byte[256];
+	private int length;
+	private int lineNumber;
+
+	/**
+	 * Create a parser that reads from the file of the given name
+	 * @param catFilename
+	 * @param catalogue
+	 */
+	public StreamingCatalogueParser(String catFilename, Catalogue catalogue) {
+		this.filename = catFilename;
+		this.catalogue = catalogue;
+	}
+
+	/**
+	 * Parse the whole file into the catalogue, leaving the catalogue as it
+	 * was if the file cannot be read or parsed.
+	 * @throws IOException if the file cannot be read
+	 * @throws DatabaseException if a line is malformed
+	 */
+	public void parse() throws IOException, DatabaseException {
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		Catalogue.Update update = catalogue.beginUpdate();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					byte b = buffer.get();
+					if (b == '\n') {
+						endLine();
+					} else if (b != '\r') {
+						if (length == line.length) {
+							byte[] longer = new byte[line.length * 2];
+							System.arraycopy(line, 0, longer, 0, length);
+							line = longer;
+						}
+						line[length++] = b;
+					}
+				}
+				buffer.clear();
+			}
+			endLine();
+			update.commit();
+		} finally {
+			update.close();
+			channel.close();
+		}
+	}
+
+	private void endLine() throws DatabaseException {
+		lineNumber++;
+		if (length > 0) {
+			parseRelation();
+		}
+		length = 0;
+	}
+
+	/**
+	 * Parse <relation name>:<tuple count>:<attribute>:...:<attribute>
+	 */
+	private void parseRelation() throws DatabaseException {
+		int nameEnd = indexOf(':', 0, length);
+		if (nameEnd <= 0) {
+			throw error("expected <relation name>:<tuple count>");
+		}
+		int sizeEnd = indexOf(':', nameEnd + 1, length);
+		String reln = string(0, nameEnd);
+		long size = decodeCount(nameEnd + 1, sizeEnd < 0 ? length : sizeEnd, "tuple count");
+		NamedRelation relation = new NamedRelation(reln, size);
+
+		int start = sizeEnd + 1;
+		while (sizeEnd >= 0 && start < length) {
+			int end = indexOf(':', start, length);
+			if (end < 0) {
+				end = length;
+			}
+			relation.addAttribute(parseAttribute(size, start, end));
+			start = end + 1;
+		}
+		catalogue.addRelation(relation);
+	}
+
+	/**
+	 * Parse <attr name>,<value count>[,mcv=...][,hist=...] in
+	 * line[start..end)
+	 */
+	private Attribute parseAttribute(long size, int start, int end) throws DatabaseException {
+		int nameEnd = indexOf(',', start, end);
+		if (nameEnd <= start) {
+			throw error("expected <attribute name>,<value count>");
+		}
+		int valuesEnd = indexOf(',', nameEnd + 1, end);
+		String attr = string(start, nameEnd);
+		long values = decodeCount(nameEnd + 1, valuesEnd < 0 ? end : valuesEnd, "value count of " + attr);
+
+		if (valuesEnd < 0) {
+			return catalogue.newAttribute(attr, values, null);
+		}
+		try {
+			String[] parts = string(start, end).split(",", 0);
+			return catalogue.newAttribute(attr, values, CatalogueParser.parseHistogram(size, parts, 2));
+		} catch (RuntimeException e) {
+			throw error("malformed statistics for " + attr + " (" + e + ")");
+		}
+	}
+
+	private int indexOf(char c, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (line[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private String string(int from, int to) {
+		return new String(line, from, to - from, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decode a number in line[from..to) as Long.decode() does: decimal,
+	 * hexadecimal after 0x, 0X or #, octal after a leading 0, with an
+	 * optional sign.
+	 */
+	private long decode(int from, int to, String what) throws DatabaseException {
+		int i = from;
+		boolean negative = false;
+		if (i < to && (line[i] == '-' || line[i] == '+')) {
+			negative = line[i] == '-';
+			i++;
+		}
+		int radix = 10;
+		if (i + 1 < to && line[i] == '0' && (line[i + 1] == 'x' || line[i + 1] == 'X')) {
+			radix = 16;
+			i += 2;
+		} else if (i < to && line[i] == '#') {
+			radix = 16;
+			i++;
+		} else if (i + 1 < to && line[i] == '0') {
+			radix = 8;
+			i++;
+		}
+		if (i == to) {
+			throw error("missing " + what);
+		}
+		long ret = 0;
+		for (; i < to; i++) {
+			int digit = Character.digit(line[i], radix);
+			if (digit < 0) {
+				throw error("malformed " + what + " \"" + string(from, to) + "\"");
+			}
+			if (ret > (Long.MAX_VALUE - digit) / radix) {
+				throw error(what + " out of range");
+			}
+			ret = ret * radix + digit;
+		}
+		return negative ? -ret : ret;
+	}
+
+	private long decodeCount(int from, int to, String what) throws DatabaseException {
+		long ret = decode(from, to, what);
+		if (ret < 0) {
+			throw error("negative " + what);
+		}
+		return ret;
+	}
+
+	private DatabaseException error(String message) {
+		return new DatabaseException(filename + ":" + lineNumber + ": " + message);
+	}
+}
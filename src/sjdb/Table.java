@@ -0,0 +1,119 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds a materialised relation in columnar form: one array
+ * of dictionary codes per attribute. It is used both for the stored
+ * relations loaded by the DataLoader and for the results of execution.
+ */
+public class Table {
+	private List<Attribute> attributes;
+	private int[][] columns;
+	private int size;
+
+	/**
+	 * Create an empty table with the given attributes.
+	 * @param attributes
+	 */
+	public Table(List<Attribute> attributes) {
+		this(attributes, new int[attributes.size()][Batch.CAPACITY], 0);
+	}
+
+	/**
+	 * Create a table over existing column arrays.
+	 * @param attributes
+	 * @param columns
+	 * @param size number of tuples held in the columns
+	 */
+	public Table(List<Attribute> attributes, int[][] columns, int size) {
+		this.attributes = new ArrayList<Attribute>(attributes);
+		this.columns = columns;
+		this.size = size;
+	}
+
+	/**
+	 * @return the attributes of the table, in column order
+	 */
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @return the number of tuples in the table
+	 */
+	public int getTupleCount() {
+		return size;
+	}
+
+	/**
+	 * @return the column arrays; only the first getTupleCount() entries are used
+	 */
+	public int[][] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Append the tuples in a batch to the table.
+	 * @param batch
+	 */
+	public void append(Batch batch) {
+		if (size + batch.getSize() > capacity()) {
+			int capacity = Math.max(size + batch.getSize(), capacity() * 2);
+			for (int i = 0; i < columns.length; i++) {
+				int[] column = new int[capacity];
+				System.arraycopy(columns[i], 0, column, 0, size);
+				columns[i] = column;
+			}
+		}
+		for (int i = 0; i < columns.length; i++) {
+			System.arraycopy(batch.getColumn(i), 0, columns[i], size, batch.getSize());
+		}
+		size += batch.getSize();
+	}
+
+	private int capacity() {
+		return columns.length == 0 ? Integer.MAX_VALUE : columns[0].length;
+	}
+
+	/**
+	 * Return a copy of the tuples from the given position onwards, up to
+	 * a batch's capacity.
+	 * @param from position of the first tuple
+	 * @return the batch, or null if from is past the end of the table
+	 */
+	public Batch getBatch(int from) {
+		if (from >= size) {
+			return null;
+		}
+		int length = Math.min(Batch.CAPACITY, size - from);
+		int[][] batch = new int[columns.length][];
+		for (int i = 0; i < columns.length; i++) {
+			batch[i] = new int[length];
+			System.arraycopy(columns[i], from, batch[i], 0, length);
+		}
+		return new Batch(batch, length);
+	}
+
+	/**
+	 * Render the table one tuple per line, with values separated by commas
+	 * and a header line of attribute names (the format read by DataLoader).
+	 * @param dictionary used to decode the values
+	 * @return the rendering of this table
+	 */
+	public String render(Dictionary dictionary) {
+		StringBuilder ret = new StringBuilder();
+		for (int i = 0; i < attributes.size(); i++) {
+			ret.append(i > 0 ? "," : "").append(attributes.get(i).getName());
+		}
+		ret.append("\n");
+		for (int row = 0; row < size; row++) {
+			for (int i = 0; i < columns.length; i++) {
+				ret.append(i > 0 ? "," : "").append(dictionary.decode(columns[i][row]));
+			}
+			ret.append("\n");
+		}
+		return ret.toString();
+	}
+}
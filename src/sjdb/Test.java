@@ -22,6 +22,7 @@ public class Test {
 		Optimiser optimiser = new Optimiser(catalogue);
 		Operator planopt = optimiser.optimise(plan);
 		planopt.accept(estimator);
+		new PhysicalPlanner().plan(planopt);
 		planopt.accept(inspector);
 		System.out.println(estimator.getSumOfCost(planopt));
 	}
@@ -0,0 +1,286 @@
+package sjdb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class generates synthetic workloads: a serialised catalogue in the
+ * format read by CatalogueParser and a matching query in the format read
+ * by QueryParser.
+ *
+ * Relation R<i> has a value attribute v<i> and, for each relation R<j> it
+ * is joined with, a join attribute j<i>_<j>. The query joins every pair of
+ * relations that is an edge of the join graph, selects on the value
+ * attributes of the first few relations, and projects the value
+ * attributes of the first and last relations.
+ *
+ * With a shared key, R<i> has a single join attribute k<i> instead, and
+ * the query equates those of every edge, so a chain joins every relation
+ * on what is one key: k0=k1, k1=k2 and so on.
+ *
+ * The workload is parameterised by:
+ *
+ * - the number of relations and the shape of the join graph;
+ * - the distribution of relation sizes between a minimum and maximum;
+ * - the skew of attribute value counts: each value count is the relation
+ *   size scaled by u^skew for u uniform on (0,1], so a skew of 0 makes
+ *   every attribute a key and larger skews give fewer distinct values;
+ * - the number of selections in the query;
+ *
+ * and by a seed, so that the same parameters always give the same
+ * workload.
+ *
+ * Usage: WorkloadGenerator [--seed <n>] [--relations <n>] [--topology <t>]
+ *                          [--sizes <distribution>,<min>,<max>] [--skew <s>]
+ *                          [--selections <n>] [--shared-key <true|false>]
+ *                          <catalogue file> <query file>
+ */
+public class WorkloadGenerator {
+	/**
+	 * Shapes of the join graph.
+	 */
+	public enum Topology {
+		/** R0 - R1 - R2 - ... */
+		CHAIN,
+		/** R0 joined with every other relation. */
+		STAR,
+		/** Every pair of relations joined. */
+		CLIQUE,
+		/** A tree in which each relation has up to three children. */
+		SNOWFLAKE
+	}
+
+	/**
+	 * Distributions of relation sizes.
+	 */
+	public enum SizeDistribution {
+		/** Uniform between the minimum and maximum size. */
+		UNIFORM,
+		/** Uniform in the logarithm of the size, so small relations are as common as large. */
+		LOG_UNIFORM,
+		/** Many small relations and a few large ones, as Zipf's law (density proportional to 1/size^2). */
+		ZIPF
+	}
+
+	private long seed;
+	private int relations;
+	private Topology topology;
+	private SizeDistribution sizeDistribution;
+	private long minSize;
+	private long maxSize;
+	private double valueSkew;
+	private int selections;
+	private boolean sharedKey;
+
+	public WorkloadGenerator(long seed) {
+		this.seed = seed;
+		this.relations = 5;
+		this.topology = Topology.CHAIN;
+		this.sizeDistribution = SizeDistribution.UNIFORM;
+		this.minSize = 100;
+		this.maxSize = 100000;
+		this.valueSkew = 1.0;
+		this.selections = 1;
+		this.sharedKey = false;
+	}
+
+	public void setRelations(int relations) {
+		this.relations = relations;
+	}
+
+	public void setTopology(Topology topology) {
+		this.topology = topology;
+	}
+
+	/**
+	 * @param distribution
+	 * @param min smallest relation size
+	 * @param max largest relation size
+	 */
+	public void setSizes(SizeDistribution distribution, long min, long max) {
+		this.sizeDistribution = distribution;
+		this.minSize = min;
+		this.maxSize = max;
+	}
+
+	/**
+	 * @param skew 0 for key attributes; larger for fewer distinct values
+	 */
+	public void setValueSkew(double skew) {
+		this.valueSkew = skew;
+	}
+
+	/**
+	 * @param selections number of value attributes selected on by the query
+	 */
+	public void setSelections(int selections) {
+		this.selections = selections;
+	}
+
+	/**
+	 * @param sharedKey true to join every relation on a single attribute
+	 */
+	public void setSharedKey(boolean sharedKey) {
+		this.sharedKey = sharedKey;
+	}
+
+	/**
+	 * Return the pairs of relations joined by the query, as the indices of
+	 * the two relations.
+	 * @return
+	 */
+	public List<int[]> edges() {
+		List<int[]> edges = new ArrayList<int[]>();
+		for (int i = 1; i < relations; i++) {
+			switch (topology) {
+			case CHAIN:
+				edges.add(new int[] { i - 1, i });
+				break;
+			case STAR:
+				edges.add(new int[] { 0, i });
+				break;
+			case CLIQUE:
+				for (int j = 0; j < i; j++) {
+					edges.add(new int[] { j, i });
+				}
+				break;
+			case SNOWFLAKE:
+				edges.add(new int[] { (i - 1) / 3, i });
+				break;
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * Return the serialised catalogue.
+	 * @return
+	 */
+	public String catalogue() {
+		Random random = new Random(seed);
+		List<int[]> edges = edges();
+		StringBuilder ret = new StringBuilder();
+		for (int i = 0; i < relations; i++) {
+			long size = size(random);
+			ret.append("R").append(i).append(":").append(size);
+			ret.append(":v").append(i).append(",").append(valueCount(random, size));
+			for (int[] edge : edges) {
+				if (sharedKey && (edge[0] == i || edge[1] == i)) {
+					ret.append(":k").append(i).append(",").append(valueCount(random, size));
+					break;
+				} else if (edge[0] == i || edge[1] == i) {
+					int other = edge[0] == i ? edge[1] : edge[0];
+					ret.append(":j").append(i).append("_").append(other).append(",")
+							.append(valueCount(random, size));
+				}
+			}
+			ret.append("\n");
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Return the query over the relations of catalogue().
+	 * @return
+	 */
+	public String query() {
+		Random random = new Random(seed ^ 0x5DEECE66DL);
+		StringBuilder ret = new StringBuilder();
+		ret.append("SELECT v0");
+		if (relations > 1) {
+			ret.append(", v").append(relations - 1);
+		}
+		ret.append("\nFROM ");
+		for (int i = 0; i < relations; i++) {
+			ret.append(i > 0 ? ", " : "").append("R").append(i);
+		}
+		List<String> preds = new ArrayList<String>();
+		for (int i = 0; i < Math.min(selections, relations); i++) {
+			preds.add("v" + i + "=\"" + random.nextInt(100) + "\"");
+		}
+		for (int[] edge : edges()) {
+			if (sharedKey) {
+				preds.add("k" + edge[0] + "=k" + edge[1]);
+			} else {
+				preds.add("j" + edge[0] + "_" + edge[1] + "=j" + edge[1] + "_" + edge[0]);
+			}
+		}
+		if (!preds.isEmpty()) {
+			ret.append("\nWHERE ");
+			for (int i = 0; i < preds.size(); i++) {
+				ret.append(i > 0 ? ", " : "").append(preds.get(i));
+			}
+		}
+		ret.append("\n");
+		return ret.toString();
+	}
+
+	private long size(Random random) {
+		double u = random.nextDouble();
+		switch (sizeDistribution) {
+		case LOG_UNIFORM:
+			return Math.round(Math.exp(Math.log(minSize) + u * (Math.log(maxSize) - Math.log(minSize))));
+		case ZIPF:
+			// inverse of the CDF of the density 1/size^2 over [min, max]
+			return Math.round(1.0 / (1.0 / minSize - u * (1.0 / minSize - 1.0 / maxSize)));
+		default:
+			return minSize + (long) (u * (maxSize - minSize));
+		}
+	}
+
+	private long valueCount(Random random, long size) {
+		double u = 1.0 - random.nextDouble();
+		return Math.max(1, Math.round(size * Math.pow(u, valueSkew)));
+	}
+
+	/**
+	 * Write the catalogue and query to files.
+	 * @param catFile
+	 * @param queryFile
+	 * @throws IOException
+	 */
+	public void write(String catFile, String queryFile) throws IOException {
+		writeFile(catFile, catalogue());
+		writeFile(queryFile, query());
+	}
+
+	private static void writeFile(String file, String text) throws IOException {
+		Writer out = new FileWriter(file);
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		WorkloadGenerator generator = new WorkloadGenerator(0);
+		int arg = 0;
+		while (arg < args.length && args[arg].startsWith("--")) {
+			String option = args[arg++];
+			String value = args[arg++];
+			if (option.equals("--seed")) {
+				generator.seed = Long.parseLong(value);
+			} else if (option.equals("--relations")) {
+				generator.setRelations(Integer.parseInt(value));
+			} else if (option.equals("--topology")) {
+				generator.setTopology(Topology.valueOf(value.toUpperCase()));
+			} else if (option.equals("--sizes")) {
+				String[] parts = value.split(",");
+				generator.setSizes(SizeDistribution.valueOf(parts[0].toUpperCase()),
+						Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+			} else if (option.equals("--skew")) {
+				generator.setValueSkew(Double.parseDouble(value));
+			} else if (option.equals("--selections")) {
+				generator.setSelections(Integer.parseInt(value));
+			} else if (option.equals("--shared-key")) {
+				generator.setSharedKey(Boolean.parseBoolean(value));
+			} else {
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+		generator.write(args[arg], args[arg + 1]);
+	}
+}